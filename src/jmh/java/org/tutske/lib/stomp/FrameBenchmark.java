@@ -0,0 +1,130 @@
+package org.tutske.lib.stomp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+@State (Scope.Thread)
+@BenchmarkMode ({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class FrameBenchmark {
+
+	@Param ({ "2", "16" })
+	public int headerCount;
+
+	@Param ({ "false", "true" })
+	public boolean escaped;
+
+	@Param ({ "128", "65536" })
+	public int bodySize;
+
+	@Param ({ "true", "false" })
+	public boolean contentLength;
+
+	private String destination;
+	private Map<String, Object> headers;
+	private byte [] body;
+	private byte [] raw;
+	private StompFrame frame;
+	private ByteBuffer target;
+	private String [] names;
+	private String [] values;
+
+	@Setup
+	public void setup () {
+		body = new byte [bodySize];
+		Arrays.fill (body, (byte) 'x');
+
+		/* escape the destination too, so even two headers take the escaped path */
+		destination = escaped ? "/queue/bench:mark\\1" : "/queue/benchmark";
+
+		headers = new LinkedHashMap<> ();
+		headers.put ("destination", destination);
+		headers.put ("x-count", 1234);
+		if ( contentLength ) { headers.put ("content-length", bodySize); }
+		names = new String [Math.max (headerCount, headers.size ())];
+		values = new String [names.length];
+		for ( int i = headers.size (); i < headerCount; i++ ) {
+			names[i] = "x-header-" + i;
+			values[i] = escaped ? "value:with\nescapes-" + i : "plain-value-" + i;
+			headers.put (names[i], values[i]);
+		}
+
+		frame = StompFrame.fromData (Stomp.Commands.MESSAGE, headers, body);
+		raw = frame.raw ();
+		target = ByteBuffer.allocate (raw.length);
+	}
+
+	@Benchmark
+	public StompFrame parse () {
+		return StompFrame.fromRaw (raw);
+	}
+
+	@Benchmark
+	public Map<String, String> parseAllHeaders () {
+		return StompFrame.fromRaw (raw).headers ();
+	}
+
+	@Benchmark
+	public StompFrame encode () {
+		return StompFrame.fromData (Stomp.Commands.MESSAGE, headers, body);
+	}
+
+	@Benchmark
+	public ByteBuffer encodeIntoBuffer () {
+		target.clear ();
+		StompEncoder.encode (Stomp.Commands.MESSAGE, headers, body, target);
+		return target;
+	}
+
+	@Benchmark
+	public byte [] raw () {
+		return frame.raw ();
+	}
+
+	@Benchmark
+	public Integer typedHeader () {
+		return frame.header ("x-count", Integer.class);
+	}
+
+	@Benchmark
+	public StompFrame factory () {
+		return Stomp.message (headers, body);
+	}
+
+	@Benchmark
+	public StompFrame builder () {
+		StompFrameBuilder builder = StompFrame.builder (Stomp.Commands.MESSAGE)
+			.header ("destination", destination)
+			.header ("x-count", 1234);
+		if ( contentLength ) { builder.header ("content-length", bodySize); }
+		for ( int i = contentLength ? 3 : 2; i < headerCount; i++ ) {
+			builder.header (names[i], values[i]);
+		}
+		return builder.body (body).build ();
+	}
+
+	@Benchmark
+	public Map<String, String> roundTrip () {
+		return StompFrame.fromRaw (StompFrame.fromData (Stomp.Commands.MESSAGE, headers, body).raw ()).headers ();
+	}
+
+}
@@ -0,0 +1,58 @@
+package org.tutske.lib.stomp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.NANOSECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class ScanBenchmark {
+
+	@Param ({ "1024", "65536", "1048576" })
+	public int size;
+
+	private byte [] frame;
+
+	@Setup
+	public void setup () {
+		byte [] head = "SEND\ndestination:/queue/benchmark\ncontent-type:text/plain\n\n".getBytes ();
+		frame = Arrays.copyOf (head, size);
+		Arrays.fill (frame, head.length, size - 1, (byte) 'x');
+		frame[size - 1] = '\0';
+	}
+
+	@Benchmark
+	public int byteLoop () {
+		for ( int i = 0; i < frame.length; i++ ) {
+			if ( frame[i] == '\0' ) { return i; }
+		}
+		return -1;
+	}
+
+	@Benchmark
+	public int swar () {
+		return StompScanner.indexOf (frame, 0, frame.length, (byte) '\0');
+	}
+
+	@Benchmark
+	public StompFrame parse () {
+		return StompFrame.fromRaw (frame);
+	}
+
+}
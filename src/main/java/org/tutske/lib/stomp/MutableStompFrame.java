@@ -0,0 +1,114 @@
+package org.tutske.lib.stomp;
+
+import java.nio.ByteBuffer;
+
+
+public class MutableStompFrame extends StompFrame {
+
+	private final StompBufferPool pool;
+	private byte [] owned;
+	private boolean live = false;
+	private StompLimits limits = StompLimits.DEFAULT;
+
+	public MutableStompFrame () {
+		this (StompBufferPool.DEFAULT);
+	}
+
+	public MutableStompFrame (StompBufferPool pool) {
+		this.pool = pool;
+	}
+
+	public MutableStompFrame limits (StompLimits limits) {
+		this.limits = limits;
+		return this;
+	}
+
+	public MutableStompFrame reset (byte [] data, int start, int len) {
+		return reset (data, start, len, limits);
+	}
+
+	MutableStompFrame reset (byte [] data, int start, int len, StompLimits limits) {
+		recycle ();
+		take (data, start, len, null, limits);
+		return this;
+	}
+
+	MutableStompFrame decoded (
+		byte [] data, int start, int len, int commandEnd, int [] lines, int headers, int bodyStart, int bodyEnd, long nanos
+	) {
+		recycle ();
+		owned = null;
+		live = true;
+		load (data, start, len, null, commandEnd, lines, headers, bodyStart, bodyEnd, nanos);
+		return this;
+	}
+
+	public MutableStompFrame reset (ByteBuffer buffer) {
+		recycle ();
+
+		int length = buffer.remaining ();
+		if ( buffer.hasArray () ) {
+			take (buffer.array (), buffer.arrayOffset () + buffer.position (), length, null, limits);
+		} else {
+			byte [] copy = pool.acquire (length);
+			buffer.duplicate ().get (copy, 0, length);
+			take (copy, 0, length, copy, limits);
+		}
+		return this;
+	}
+
+	public MutableStompFrame copy (StompFrame frame) {
+		recycle ();
+
+		if ( ! frame.isSpilled () ) {
+			byte [] copy = pool.acquire (frame.length ());
+			System.arraycopy (frame.array (), frame.offset (), copy, 0, frame.length ());
+			take (copy, 0, frame.length (), copy, StompLimits.NONE);
+			return this;
+		}
+
+		/* the copy owns its body, so a spilled body is read back in behind the headers */
+		int body = Math.toIntExact (frame.spilledBody ().length ());
+		int length = Math.addExact (frame.length (), body + 1);
+		byte [] copy = pool.acquire (length);
+		System.arraycopy (frame.array (), frame.offset (), copy, 0, frame.length ());
+		frame.spilledBody ().map ().get (copy, frame.length (), body);
+		copy[length - 1] = 0;
+		take (copy, 0, length, copy, StompLimits.NONE);
+		return this;
+	}
+
+	public boolean isReleased () {
+		return ! live;
+	}
+
+	public void release () {
+		if ( ! live ) {
+			if ( pool.isDebug () ) { throw new IllegalStateException ("Stomp frame released twice"); }
+			return;
+		}
+
+		live = false;
+		recycle ();
+		if ( pool.isDebug () ) { released (true); }
+	}
+
+	private void take (byte [] data, int start, int len, byte [] owned, StompLimits limits) {
+		this.owned = owned;
+		this.live = true;
+		try {
+			load (data, start, len, limits);
+		} catch (RuntimeException e) {
+			release ();
+			throw e;
+		}
+	}
+
+	private void recycle () {
+		if ( owned != null ) {
+			pool.release (owned);
+			owned = null;
+		}
+	}
+
+}
@@ -1,6 +1,5 @@
 package org.tutske.lib.stomp;
 
-import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -9,13 +8,20 @@ public class Stomp {
 
 	public static class Commands {
 		public static final String CONNECT = "CONNECT";
+		public static final String STOMP = "STOMP";
+		public static final String CONNECTED = "CONNECTED";
 		public static final String DISCONNECT = "DISCONNECT";
 		public static final String SEND = "SEND";
+		public static final String SUBSCRIBE = "SUBSCRIBE";
+		public static final String UNSUBSCRIBE = "UNSUBSCRIBE";
 		public static final String RECEIPT = "RECEIPT";
 		public static final String MESSAGE = "MESSAGE";
 		public static final String ERROR = "ERROR";
 		public static final String ACK = "ACK";
 		public static final String NACK = "NACK";
+		public static final String BEGIN = "BEGIN";
+		public static final String COMMIT = "COMMIT";
+		public static final String ABORT = "ABORT";
 	}
 
 	public static Map<String, Object> headers (Object ... headers) {
@@ -35,6 +41,14 @@ public class Stomp {
 	public static StompFrame connect (Map<String, Object> headers) { return frame (Commands.CONNECT, headers); }
 	public static StompFrame connect (Object ... headers) { return frame (Commands.CONNECT, headers (headers)); }
 
+	public static StompFrame stomp () { return frame (Commands.STOMP); }
+	public static StompFrame stomp (Map<String, Object> headers) { return frame (Commands.STOMP, headers); }
+	public static StompFrame stomp (Object ... headers) { return frame (Commands.STOMP, headers (headers)); }
+
+	public static StompFrame connected () { return frame (Commands.CONNECTED); }
+	public static StompFrame connected (Map<String, Object> headers) { return frame (Commands.CONNECTED, headers); }
+	public static StompFrame connected (Object ... headers) { return frame (Commands.CONNECTED, headers (headers)); }
+
 	public static StompFrame disconnect () { return frame (Commands.DISCONNECT); }
 	public static StompFrame disconnect (Map<String, Object> headers) { return frame (Commands.DISCONNECT, headers); }
 	public static StompFrame disconnect (Object ... headers) { return frame (Commands.DISCONNECT, headers (headers)); }
@@ -44,6 +58,14 @@ public class Stomp {
 	public static StompFrame send (byte [] data) { return frame (Commands.SEND, data); }
 	public static StompFrame send (Map<String, Object> headers, byte [] data) { return frame (Commands.SEND, headers, data); }
 
+	public static StompFrame subscribe () { return frame (Commands.SUBSCRIBE); }
+	public static StompFrame subscribe (Map<String, Object> headers) { return frame (Commands.SUBSCRIBE, headers); }
+	public static StompFrame subscribe (Object ... headers) { return frame (Commands.SUBSCRIBE, headers (headers)); }
+
+	public static StompFrame unsubscribe () { return frame (Commands.UNSUBSCRIBE); }
+	public static StompFrame unsubscribe (Map<String, Object> headers) { return frame (Commands.UNSUBSCRIBE, headers); }
+	public static StompFrame unsubscribe (Object ... headers) { return frame (Commands.UNSUBSCRIBE, headers (headers)); }
+
 	public static StompFrame receipt () { return frame (Commands.RECEIPT); }
 	public static StompFrame receipt (Map<String, Object> headers) { return frame (Commands.RECEIPT, headers); }
 	public static StompFrame receipt (byte [] data) { return frame (Commands.RECEIPT, data); }
@@ -68,9 +90,21 @@ public class Stomp {
 	public static StompFrame nack (Map<String, Object> headers) { return frame (Commands.NACK, headers); }
 	public static StompFrame nack (Object ... headers) { return frame (Commands.NACK, headers (headers)); }
 
+	public static StompFrame begin () { return frame (Commands.BEGIN); }
+	public static StompFrame begin (Map<String, Object> headers) { return frame (Commands.BEGIN, headers); }
+	public static StompFrame begin (Object ... headers) { return frame (Commands.BEGIN, headers (headers)); }
+
+	public static StompFrame commit () { return frame (Commands.COMMIT); }
+	public static StompFrame commit (Map<String, Object> headers) { return frame (Commands.COMMIT, headers); }
+	public static StompFrame commit (Object ... headers) { return frame (Commands.COMMIT, headers (headers)); }
+
+	public static StompFrame abort () { return frame (Commands.ABORT); }
+	public static StompFrame abort (Map<String, Object> headers) { return frame (Commands.ABORT, headers); }
+	public static StompFrame abort (Object ... headers) { return frame (Commands.ABORT, headers (headers)); }
+
 
 	public static StompFrame frame (String command) {
-		return StompFrame.fromData (command, Collections.EMPTY_MAP, new byte [] {});
+		return StompFrame.builder (command).build ();
 	}
 
 	public static StompFrame frame (String command, Map<String, Object> headers) {
@@ -78,7 +112,7 @@ public class Stomp {
 	}
 
 	public static StompFrame frame (String command, byte [] data) {
-		return StompFrame.fromData (command, Collections.EMPTY_MAP, data);
+		return StompFrame.builder (command).body (data).build ();
 	}
 
 	public static StompFrame frame (String command, Map<String, Object> headers, byte [] data) {
@@ -0,0 +1,238 @@
+package org.tutske.lib.stomp;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+
+public class StompAckTracker<T> {
+
+	public static enum Mode {
+		AUTO, CLIENT, CLIENT_INDIVIDUAL;
+
+		public static Mode of (String header) {
+			if ( header == null ) { return AUTO; }
+			switch ( header ) {
+				case "auto": return AUTO;
+				case "client": return CLIENT;
+				case "client-individual": return CLIENT_INDIVIDUAL;
+				default: throw new IllegalArgumentException ("Unknown ack mode: " + header);
+			}
+		}
+	}
+
+	private static final int SEQUENCE_BITS = 40;
+	private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+	private final int subscription;
+	private final Mode mode;
+	private final int prefetch;
+
+	private Object [] items;
+	private long [] resolved;
+	private int mask;
+	private long base = 0;
+	private long next = 0;
+	private int pending = 0;
+	private int holes = 0;
+
+	public static int subscription (long ackId) {
+		return (int) (ackId >>> SEQUENCE_BITS);
+	}
+
+	public StompAckTracker (int subscription, Mode mode, int prefetch) {
+		this (subscription, mode, prefetch, 0);
+	}
+
+	StompAckTracker (int subscription, Mode mode, int prefetch, long firstSequence) {
+		if ( subscription < 0 || subscription >= 1 << (63 - SEQUENCE_BITS) ) {
+			throw new IllegalArgumentException ("Subscription index out of range: " + subscription);
+		}
+
+		this.subscription = subscription;
+		this.mode = mode;
+		this.prefetch = prefetch;
+
+		int size = Integer.highestOneBit (Math.max (64, Math.min (prefetch, 1 << 20) - 1)) << 1;
+		this.items = new Object [size];
+		this.resolved = new long [size >>> 6];
+		this.mask = size - 1;
+		this.base = this.next = firstSequence;
+	}
+
+	public Mode mode () {
+		return mode;
+	}
+
+	long nextSequence () {
+		return next;
+	}
+
+	public int pending () {
+		return pending;
+	}
+
+	public int credit () {
+		if ( prefetch <= 0 ) { return Integer.MAX_VALUE; }
+		return Math.max (0, prefetch - pending);
+	}
+
+	public long track (T message) {
+		if ( mode == Mode.AUTO ) { return ackId (next++); }
+		if ( credit () == 0 ) { throw new IllegalStateException ("No prefetch credit left"); }
+		if ( next - base == items.length ) { grow (); }
+
+		long sequence = next++;
+		items[index (sequence)] = message;
+		pending++;
+		return ackId (sequence);
+	}
+
+	@SuppressWarnings ("unchecked")
+	public T get (long ackId) {
+		long sequence = sequence (ackId);
+		if ( sequence < base || sequence >= next || isResolved (sequence) ) { return null; }
+		return (T) items[index (sequence)];
+	}
+
+	public int ack (long ackId) {
+		long sequence = sequence (ackId);
+		if ( mode == Mode.AUTO || sequence < base ) { return 0; }
+
+		if ( mode == Mode.CLIENT && holes == 0 ) {
+			int released = (int) (sequence + 1 - base);
+			clear (base, sequence + 1);
+			base = sequence + 1;
+			pending -= released;
+			return released;
+		}
+
+		if ( mode == Mode.CLIENT ) {
+			int released = 0;
+			for ( long current = base; current <= sequence; current++ ) {
+				if ( ! isResolved (current) ) { resolve (current); released++; }
+			}
+			advance ();
+			return released;
+		}
+
+		if ( isResolved (sequence) ) { return 0; }
+		resolve (sequence);
+		advance ();
+		return 1;
+	}
+
+	public int nack (long ackId, Consumer<? super T> redeliver) {
+		long sequence = sequence (ackId);
+		long from = mode == Mode.CLIENT ? base : sequence;
+		return nack (from, sequence, redeliver);
+	}
+
+	public int nack (long fromId, long toId, Consumer<? super T> redeliver) {
+		return nack (sequence (fromId), sequence (toId), redeliver, true);
+	}
+
+	public int nackAll (Consumer<? super T> redeliver) {
+		return next == base ? 0 : nack (base, next - 1, redeliver, false);
+	}
+
+	public int handle (StompFrame frame, Consumer<? super T> redeliver) {
+		long ackId = frame.headerLong (StompHeaders.ID, -1);
+		if ( ackId < 0 ) { throw new IllegalArgumentException ("Frame has no numeric id header to acknowledge"); }
+
+		switch ( frame.command () ) {
+			case Stomp.Commands.ACK: return ack (ackId);
+			case Stomp.Commands.NACK: return nack (ackId, redeliver);
+			default: throw new IllegalArgumentException ("Not an ACK or NACK frame: " + frame.command ());
+		}
+	}
+
+	@SuppressWarnings ("unchecked")
+	private int nack (long from, long to, Consumer<? super T> redeliver, boolean checked) {
+		if ( mode == Mode.AUTO ) { return 0; }
+		if ( checked && to >= next ) { throw new IllegalArgumentException ("Unknown ack id " + ackId (to)); }
+
+		int released = 0;
+		for ( long sequence = Math.max (from, base); sequence <= to; sequence++ ) {
+			if ( isResolved (sequence) ) { continue; }
+			T item = (T) items[index (sequence)];
+			resolve (sequence);
+			released++;
+			redeliver.accept (item);
+		}
+		advance ();
+		return released;
+	}
+
+	private long ackId (long sequence) {
+		return ((long) subscription << SEQUENCE_BITS) | sequence;
+	}
+
+	private long sequence (long ackId) {
+		if ( subscription (ackId) != subscription ) {
+			throw new IllegalArgumentException ("Ack id " + ackId + " belongs to another subscription");
+		}
+		long sequence = ackId & SEQUENCE_MASK;
+		if ( sequence >= next ) { throw new IllegalArgumentException ("Unknown ack id " + ackId); }
+		return sequence;
+	}
+
+	private int index (long sequence) {
+		return (int) sequence & mask;
+	}
+
+	private boolean isResolved (long sequence) {
+		int index = index (sequence);
+		return (resolved[index >>> 6] & (1L << index)) != 0;
+	}
+
+	private void resolve (long sequence) {
+		int index = index (sequence);
+		resolved[index >>> 6] |= 1L << index;
+		items[index] = null;
+		pending--;
+		holes++;
+	}
+
+	private void clear (long from, long to) {
+		int start = index (from);
+		int end = start + (int) (to - from);
+		if ( end <= items.length ) {
+			Arrays.fill (items, start, end, null);
+		} else {
+			Arrays.fill (items, start, items.length, null);
+			Arrays.fill (items, 0, end - items.length, null);
+		}
+	}
+
+	private void advance () {
+		while ( base < next && isResolved (base) ) {
+			int index = index (base);
+			resolved[index >>> 6] &= ~(1L << index);
+			holes--;
+			base++;
+		}
+	}
+
+	private void grow () {
+		int size = items.length * 2;
+		Object [] items = new Object [size];
+		long [] resolved = new long [size >>> 6];
+
+		for ( long sequence = base; sequence < next; sequence++ ) {
+			int from = index (sequence);
+			int to = (int) sequence & (size - 1);
+			items[to] = this.items[from];
+			if ( (this.resolved[from >>> 6] & (1L << from)) != 0 ) { resolved[to >>> 6] |= 1L << to; }
+		}
+
+		this.items = items;
+		this.resolved = resolved;
+		this.mask = size - 1;
+	}
+
+	@Override
+	public String toString () {
+		return "StompAckTracker" + Arrays.asList (subscription, mode, pending + "/" + prefetch);
+	}
+
+}
@@ -0,0 +1,92 @@
+package org.tutske.lib.stomp;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+public class StompBatching {
+
+	public static final StompBatching LATENCY = new StompBatching (0, 0, TimeUnit.NANOSECONDS);
+	public static final StompBatching THROUGHPUT = new StompBatching (64 * 1024, 2, TimeUnit.MILLISECONDS);
+
+	private final int maxBytes;
+	private final long maxDelay;
+
+	public StompBatching (int maxBytes, long maxDelay, TimeUnit unit) {
+		if ( maxBytes < 0 || maxDelay < 0 ) {
+			throw new IllegalArgumentException ("Batch size and delay can not be negative");
+		}
+		this.maxBytes = maxBytes;
+		this.maxDelay = unit.toNanos (maxDelay);
+	}
+
+	public int maxBytes () {
+		return maxBytes;
+	}
+
+	public long maxDelay (TimeUnit unit) {
+		return unit.convert (maxDelay, TimeUnit.NANOSECONDS);
+	}
+
+	boolean flushesAt (long queued) {
+		return maxDelay == 0 || queued >= maxBytes;
+	}
+
+	long deadline (long now) {
+		return now + maxDelay;
+	}
+
+	public static class Stats {
+		private final LongAdder writes = new LongAdder ();
+		private final LongAdder buffers = new LongAdder ();
+		private final LongAdder bytes = new LongAdder ();
+		private final LongAdder flushes = new LongAdder ();
+		private final LongAdder latency = new LongAdder ();
+		private final LongAccumulator maxLatency = new LongAccumulator (Math::max, 0);
+
+		void write (int buffers, long bytes) {
+			this.writes.increment ();
+			this.buffers.add (buffers);
+			this.bytes.add (bytes);
+		}
+
+		void flush (long latency) {
+			this.flushes.increment ();
+			this.latency.add (latency);
+			this.maxLatency.accumulate (latency);
+		}
+
+		public long writes () {
+			return writes.sum ();
+		}
+
+		public long bytes () {
+			return bytes.sum ();
+		}
+
+		public double buffersPerWrite () {
+			long writes = this.writes.sum ();
+			return writes == 0 ? 0 : (double) buffers.sum () / writes;
+		}
+
+		public double bytesPerWrite () {
+			long writes = this.writes.sum ();
+			return writes == 0 ? 0 : (double) bytes.sum () / writes;
+		}
+
+		public long flushes () {
+			return flushes.sum ();
+		}
+
+		public long averageFlushLatency (TimeUnit unit) {
+			long flushes = this.flushes.sum ();
+			return flushes == 0 ? 0 : unit.convert (latency.sum () / flushes, TimeUnit.NANOSECONDS);
+		}
+
+		public long maxFlushLatency (TimeUnit unit) {
+			return unit.convert (maxLatency.get (), TimeUnit.NANOSECONDS);
+		}
+	}
+
+}
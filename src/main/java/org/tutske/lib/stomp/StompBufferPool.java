@@ -0,0 +1,83 @@
+package org.tutske.lib.stomp;
+
+import java.util.Arrays;
+
+
+public class StompBufferPool {
+
+	public static final StompBufferPool DEFAULT = new StompBufferPool ();
+
+	private final int minShift;
+	private final int maxShift;
+	private final int perThread;
+	private final boolean debug;
+	private final ThreadLocal<byte [][][]> caches;
+	private final ThreadLocal<int []> counts;
+
+	public StompBufferPool () {
+		this (256, 1 << 20, 16, Boolean.getBoolean ("org.tutske.lib.stomp.debug"));
+	}
+
+	public StompBufferPool (int minSize, int maxSize, int perThread, boolean debug) {
+		if ( minSize <= 0 || maxSize < minSize ) {
+			throw new IllegalArgumentException ("Invalid pool sizes: " + minSize + " - " + maxSize);
+		}
+
+		this.minShift = shift (minSize);
+		this.maxShift = shift (maxSize);
+		this.perThread = perThread;
+		this.debug = debug;
+
+		int classes = maxShift - minShift + 1;
+		this.caches = ThreadLocal.withInitial (() -> new byte [classes][perThread][]);
+		this.counts = ThreadLocal.withInitial (() -> new int [classes]);
+	}
+
+	public boolean isDebug () {
+		return debug;
+	}
+
+	public byte [] acquire (int size) {
+		int shift = Math.max (minShift, shift (size));
+		if ( shift > maxShift ) { return new byte [size]; }
+
+		int index = shift - minShift;
+		int [] count = counts.get ();
+		if ( count[index] == 0 ) { return new byte [1 << shift]; }
+
+		byte [][] cache = caches.get ()[index];
+		byte [] buffer = cache[--count[index]];
+		cache[count[index]] = null;
+		return buffer;
+	}
+
+	public void release (byte [] buffer) {
+		int length = buffer.length;
+		if ( Integer.bitCount (length) != 1 ) { return; }
+
+		int shift = shift (length);
+		if ( shift < minShift || shift > maxShift ) { return; }
+
+		int index = shift - minShift;
+		int [] count = counts.get ();
+		if ( count[index] == perThread ) { return; }
+
+		byte [][] cache = caches.get ()[index];
+		if ( debug ) {
+			for ( int i = 0; i < count[index]; i++ ) {
+				if ( cache[i] == buffer ) { throw new IllegalStateException ("Buffer released twice"); }
+			}
+			Arrays.fill (buffer, (byte) 0xFF);
+		}
+		cache[count[index]++] = buffer;
+	}
+
+	public MutableStompFrame frame () {
+		return new MutableStompFrame (this);
+	}
+
+	private static int shift (int size) {
+		return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros (size - 1);
+	}
+
+}
@@ -0,0 +1,70 @@
+package org.tutske.lib.stomp;
+
+import java.nio.charset.StandardCharsets;
+
+
+public enum StompCommand {
+
+	CONNECT, STOMP, CONNECTED, DISCONNECT,
+	SEND, SUBSCRIBE, UNSUBSCRIBE, MESSAGE,
+	ACK, NACK, BEGIN, COMMIT, ABORT,
+	RECEIPT, ERROR;
+
+	private static final StompCommand [][] BY_LENGTH = new StompCommand [12][];
+
+	static {
+		for ( StompCommand command : values () ) {
+			int length = command.bytes.length;
+			StompCommand [] current = BY_LENGTH[length] == null ? new StompCommand [0] : BY_LENGTH[length];
+			StompCommand [] next = new StompCommand [current.length + 1];
+			System.arraycopy (current, 0, next, 0, current.length);
+			next[current.length] = command;
+			BY_LENGTH[length] = next;
+		}
+	}
+
+	private final byte [] bytes = name ().getBytes (StandardCharsets.US_ASCII);
+
+	public static StompCommand match (byte [] data, int from, int to) {
+		int length = to - from;
+		if ( length >= BY_LENGTH.length || BY_LENGTH[length] == null ) { return null; }
+
+		for ( StompCommand command : BY_LENGTH[length] ) {
+			if ( command.bytes[0] == data[from] && command.matches (data, from) ) { return command; }
+		}
+		return null;
+	}
+
+	public static StompCommand of (String command) {
+		switch ( command ) {
+			case "CONNECT": return CONNECT;
+			case "STOMP": return STOMP;
+			case "CONNECTED": return CONNECTED;
+			case "DISCONNECT": return DISCONNECT;
+			case "SEND": return SEND;
+			case "SUBSCRIBE": return SUBSCRIBE;
+			case "UNSUBSCRIBE": return UNSUBSCRIBE;
+			case "MESSAGE": return MESSAGE;
+			case "ACK": return ACK;
+			case "NACK": return NACK;
+			case "BEGIN": return BEGIN;
+			case "COMMIT": return COMMIT;
+			case "ABORT": return ABORT;
+			case "RECEIPT": return RECEIPT;
+			case "ERROR": return ERROR;
+			default: return null;
+		}
+	}
+
+	public boolean escapesHeaders () {
+		return this != CONNECT && this != CONNECTED;
+	}
+
+	private boolean matches (byte [] data, int from) {
+		for ( int i = 1; i < bytes.length; i++ ) {
+			if ( bytes[i] != data[from + i] ) { return false; }
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,285 @@
+package org.tutske.lib.stomp;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+public class StompConnection {
+
+	private static final int GATHER = 16;
+	private static final ByteBuffer NUL = ByteBuffer.wrap (new byte [] { '\0' }).asReadOnlyBuffer ();
+
+	private final StompEngine engine;
+	private final SocketChannel channel;
+	private final StompDecoder decoder;
+	private final StompWebSocket websocket;
+	private final Queue<ByteBuffer []> queue = new ConcurrentLinkedQueue<> ();
+	private final AtomicBoolean scheduled = new AtomicBoolean ();
+	private final ByteBuffer [] gather = new ByteBuffer [GATHER];
+	private final AtomicLong queued = new AtomicLong ();
+	private final AtomicLong deadline = new AtomicLong (Long.MAX_VALUE);
+	private final AtomicLong batchStart = new AtomicLong ();
+	private final AtomicBoolean writable = new AtomicBoolean (true);
+	private final AtomicLong throttled = new AtomicLong ();
+
+	private SelectionKey key;
+	private int pending = 0;
+	private ByteBuffer [] partial;
+	private int partialIndex = 0;
+	private volatile boolean closing = false;
+	private volatile boolean closed = false;
+	private volatile Object attachment;
+	private volatile long lastRead = System.nanoTime ();
+	private volatile long lastWrite = System.nanoTime ();
+	private volatile StompBatching batching;
+	private volatile long lowWatermark = Long.MAX_VALUE;
+	private volatile long highWatermark = Long.MAX_VALUE;
+
+	StompConnection (
+		StompEngine engine, SocketChannel channel, int initialCapacity, StompBatching batching, StompLimits limits,
+		boolean websocket, boolean binary
+	) {
+		this.engine = engine;
+		this.batching = batching;
+		this.channel = channel;
+		this.decoder = new StompDecoder (initialCapacity).limits (limits);
+		this.websocket = websocket ? new StompWebSocket (decoder).binary (binary) : null;
+	}
+
+	public SocketAddress remoteAddress () {
+		try { return channel.getRemoteAddress (); }
+		catch (IOException e) { return null; }
+	}
+
+	public boolean isOpen () {
+		return ! closed;
+	}
+
+	public long lastRead () {
+		return lastRead;
+	}
+
+	public long lastWrite () {
+		return lastWrite;
+	}
+
+	public Object attachment () {
+		return attachment;
+	}
+
+	public void attach (Object attachment) {
+		this.attachment = attachment;
+	}
+
+	public StompBatching batching () {
+		return batching;
+	}
+
+	public void batching (StompBatching batching) {
+		this.batching = batching;
+	}
+
+	public void watermarks (long low, long high) {
+		if ( low < 0 || high < low ) {
+			throw new IllegalArgumentException ("Invalid watermarks: " + low + " - " + high);
+		}
+		this.lowWatermark = low;
+		this.highWatermark = high;
+	}
+
+	public boolean isWritable () {
+		return writable.get ();
+	}
+
+	public long queued () {
+		return queued.get ();
+	}
+
+	public long throttled () {
+		return throttled.get ();
+	}
+
+	public void send (StompFrame frame) {
+		send (frame, batching);
+	}
+
+	public void send (StompFrame frame, StompBatching batching) {
+		if ( closing ) { throw new IllegalStateException ("Connection is closed"); }
+
+		ByteBuffer [] buffers;
+		if ( frame.isSpilled () ) {
+			buffers = new ByteBuffer [] {
+				ByteBuffer.wrap (frame.array (), frame.offset (), frame.length ()),
+				frame.spilledBody ().map (),
+				NUL.duplicate ()
+			};
+		} else {
+			buffers = new ByteBuffer [] { frame.rawBuffer () };
+		}
+
+		enqueue (batching, websocket == null ? buffers : websocket.wrap (websocket.opcode (frame), buffers));
+	}
+
+	public void send (ByteBuffer ... buffers) {
+		send (batching, buffers);
+	}
+
+	public void send (StompBatching batching, ByteBuffer ... buffers) {
+		if ( closing ) { throw new IllegalStateException ("Connection is closed"); }
+		if ( buffers.length == 0 ) { return; }
+		enqueue (batching, websocket == null ? buffers.clone () : websocket.wrap (buffers));
+	}
+
+	public void flush () {
+		schedule ();
+	}
+
+	public void close () {
+		if ( websocket != null && websocket.isOpen () && ! closing ) {
+			enqueue (StompBatching.LATENCY, websocket.close (1000));
+		}
+		closing = true;
+		schedule ();
+	}
+
+	private void enqueue (StompBatching batching, ByteBuffer ... buffers) {
+		long bytes = 0;
+		for ( ByteBuffer buffer : buffers ) { bytes += buffer.remaining (); }
+
+		batchStart.compareAndSet (0, System.nanoTime ());
+		queue.add (buffers);
+
+		long total = queued.addAndGet (bytes);
+		if ( total > highWatermark && writable.compareAndSet (true, false) ) {
+			throttled.incrementAndGet ();
+		}
+
+		if ( batching.flushesAt (total) ) {
+			schedule ();
+			return;
+		}
+
+		long due = batching.deadline (System.nanoTime ());
+		long current;
+		while ( due < (current = deadline.get ()) ) {
+			if ( deadline.compareAndSet (current, due) ) {
+				engine.schedule (this::schedule, due);
+				return;
+			}
+		}
+	}
+
+	void abort (Throwable cause) {
+		closing = true;
+		engine.execute (() -> engine.close (this, cause));
+	}
+
+	void register (SelectionKey key) {
+		this.key = key;
+	}
+
+	void read (ByteBuffer chunk, StompHandler handler) throws IOException {
+		chunk.clear ();
+		int read = channel.read (chunk);
+		if ( read < 0 ) {
+			engine.close (this, null);
+			return;
+		}
+		lastRead = System.nanoTime ();
+		chunk.flip ();
+
+		if ( websocket == null ) {
+			decoder.decode (chunk, frame -> deliver (handler, frame));
+			return;
+		}
+
+		websocket.decode (chunk, frame -> deliver (handler, frame), reply -> enqueue (StompBatching.LATENCY, reply));
+		if ( websocket.isClosed () && ! closing ) {
+			closing = true;
+			schedule ();
+		}
+	}
+
+	private void deliver (StompHandler handler, StompFrame frame) {
+		try { handler.onFrame (this, frame); }
+		finally { frame.releaseSpilled (); }
+	}
+
+	void drain () throws IOException {
+		scheduled.set (false);
+		deadline.set (Long.MAX_VALUE);
+		if ( closed ) { return; }
+
+		long started = batchStart.getAndSet (0);
+
+		while ( true ) {
+			while ( pending < GATHER ) {
+				if ( partial == null ) {
+					partial = queue.poll ();
+					partialIndex = 0;
+					if ( partial == null ) { break; }
+				}
+				gather[pending++] = partial[partialIndex++];
+				if ( partialIndex == partial.length ) { partial = null; }
+			}
+			if ( pending == 0 ) { break; }
+
+			long written = channel.write (gather, 0, pending);
+			if ( written > 0 ) {
+				lastWrite = System.nanoTime ();
+				long left = queued.addAndGet (-written);
+				engine.stats ().write (pending, written);
+				if ( left <= lowWatermark && ! writable.get () && writable.compareAndSet (false, true) ) {
+					engine.writable (this);
+				}
+			}
+
+			int done = 0;
+			while ( done < pending && ! gather[done].hasRemaining () ) { done++; }
+			System.arraycopy (gather, done, gather, 0, pending - done);
+			for ( int i = pending - done; i < pending; i++ ) { gather[i] = null; }
+			pending -= done;
+
+			if ( pending > 0 ) {
+				if ( started != 0 ) { batchStart.compareAndSet (0, started); }
+				key.interestOps (key.interestOps () | SelectionKey.OP_WRITE);
+				return;
+			}
+		}
+
+		if ( started != 0 ) { engine.stats ().flush (System.nanoTime () - started); }
+		key.interestOps (key.interestOps () & ~SelectionKey.OP_WRITE);
+		if ( closing ) { engine.close (this, null); }
+	}
+
+	void closeChannel () {
+		if ( closed ) { return; }
+		closed = closing = true;
+		queue.clear ();
+		partial = null;
+		decoder.reset ();
+		if ( websocket != null ) { websocket.reset (); }
+		if ( key != null ) { key.cancel (); }
+		try { channel.close (); }
+		catch (IOException ignore) {}
+	}
+
+	private void schedule () {
+		if ( scheduled.compareAndSet (false, true) ) {
+			engine.execute (this::flushOrClose);
+		}
+	}
+
+	private void flushOrClose () {
+		try { drain (); }
+		catch (IOException e) { engine.close (this, e); }
+	}
+
+}
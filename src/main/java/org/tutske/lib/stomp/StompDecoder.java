@@ -0,0 +1,443 @@
+package org.tutske.lib.stomp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+
+public class StompDecoder {
+
+	private static final int IDLE = 0;
+	private static final int HEADERS = 1;
+	private static final int BODY = 2;
+	private static final int SPILL = 3;
+
+	private static final byte [] CONTENT_LENGTH = "content-length:".getBytes ();
+	private static final byte [] PING = { '\n' };
+
+	private byte [] buffer;
+	private boolean shared = false;
+	private MutableStompFrame reusable;
+
+	private StompLimits limits = StompLimits.DEFAULT;
+	private long spillThreshold = Long.MAX_VALUE;
+	private Path spillDirectory;
+	private StompSpilledBody spill;
+	private long spillLeft;
+
+	private int limit = 0;
+	private int scan = 0;
+	private int frameStart = 0;
+	private int lineStart = 0;
+	private int bodyStart = 0;
+	private long contentLength = -1;
+	private int headerCount = 0;
+	private int commandEnd = 0;
+	private int separator = -1;
+	private int [] lines = new int [3 * 8];
+	private long parseNanos = 0;
+	private long parseMark = 0;
+	private boolean commandLine = false;
+	private int state = IDLE;
+
+	public StompDecoder () {
+		this (4096);
+	}
+
+	public StompDecoder (int initialCapacity) {
+		this.buffer = new byte [Math.max (16, initialCapacity)];
+	}
+
+	/* A null directory spills to the default temporary-file directory. */
+	public StompDecoder spillBodiesAbove (long threshold, Path directory) {
+		this.spillThreshold = threshold;
+		this.spillDirectory = directory;
+		return this;
+	}
+
+	public StompDecoder limits (StompLimits limits) {
+		this.limits = limits;
+		return this;
+	}
+
+	public List<StompFrame> decode (ByteBuffer chunk) {
+		List<StompFrame> frames = new ArrayList<> ();
+		decode (chunk, frames::add);
+		return frames;
+	}
+
+	public void decode (ByteBuffer chunk, Consumer<StompFrame> consumer) {
+		while ( chunk.hasRemaining () ) {
+			if ( state == SPILL && scan == limit && spillFromChunk (chunk) ) { continue; }
+			ensureCapacity (Math.min (chunk.remaining (), buffer.length));
+			int length = Math.min (chunk.remaining (), buffer.length - limit);
+			chunk.get (buffer, limit, length);
+			limit += length;
+			process (consumer);
+		}
+	}
+
+	public void decode (ByteBuffer chunk, MutableStompFrame reuse, Consumer<StompFrame> consumer) {
+		reusable = reuse;
+		try { decode (chunk, consumer); }
+		finally { reusable = null; }
+	}
+
+	public int read (ReadableByteChannel channel, MutableStompFrame reuse, Consumer<StompFrame> consumer)
+	throws IOException {
+		reusable = reuse;
+		try { return read (channel, consumer); }
+		finally { reusable = null; }
+	}
+
+	public int read (ReadableByteChannel channel, Consumer<StompFrame> consumer) throws IOException {
+		if ( state == SPILL && scan == limit && spillLeft > 0 ) {
+			long transferred = spill.transferFrom (channel, spillLeft);
+			if ( transferred > 0 ) {
+				spillLeft -= transferred;
+				return (int) transferred;
+			}
+		}
+
+		ensureCapacity (Math.max (1024, buffer.length >> 2));
+		int read = channel.read (ByteBuffer.wrap (buffer, limit, buffer.length - limit));
+		if ( read > 0 ) {
+			limit += read;
+			process (consumer);
+		}
+		return read;
+	}
+
+	public int buffered () {
+		return limit - frameStart;
+	}
+
+	public boolean isIdle () {
+		return state == IDLE && limit == scan;
+	}
+
+	public void reset () {
+		if ( spill != null ) {
+			try { spill.close (); }
+			catch (IOException e) { throw new UncheckedIOException (e); }
+			spill = null;
+		}
+		if ( shared ) { buffer = new byte [buffer.length]; }
+		shared = false;
+		limit = scan = frameStart = lineStart = bodyStart = commandEnd = 0;
+		contentLength = separator = -1;
+		spillLeft = 0;
+		headerCount = 0;
+		commandLine = false;
+		state = IDLE;
+	}
+
+	private void process (Consumer<StompFrame> consumer) {
+		/* parse time only counts the work done on a frame, not the wait for the rest of it */
+		boolean timed = StompFrame.metrics () != StompMetrics.NONE;
+		if ( timed && state != IDLE ) { parseMark = System.nanoTime (); }
+		run (consumer);
+		if ( timed && state != IDLE ) { parseNanos += System.nanoTime () - parseMark; }
+	}
+
+	private void run (Consumer<StompFrame> consumer) {
+		while ( scan < limit ) {
+			switch ( state ) {
+				case IDLE: if ( ! processIdle (consumer) ) { return; } break;
+				case HEADERS: if ( ! processHeaders () ) { return; } break;
+				case BODY: if ( ! processBody (consumer) ) { return; } break;
+				case SPILL: if ( ! processSpill (consumer) ) { return; } break;
+			}
+		}
+	}
+
+	private boolean processIdle (Consumer<StompFrame> consumer) {
+		byte c = buffer[scan];
+
+		if ( c == '\n' ) {
+			scan = frameStart = scan + 1;
+			consumer.accept (ping ());
+			return true;
+		}
+
+		if ( c == '\r' ) {
+			if ( scan + 1 >= limit ) { return false; }
+			if ( buffer[scan + 1] == '\n' ) {
+				scan = frameStart = scan + 2;
+				consumer.accept (ping ());
+				return true;
+			}
+		}
+
+		frameStart = lineStart = scan;
+		contentLength = separator = -1;
+		headerCount = 0;
+		commandLine = true;
+		state = HEADERS;
+		if ( StompFrame.metrics () != StompMetrics.NONE ) {
+			parseNanos = 0;
+			parseMark = System.nanoTime ();
+		}
+		return true;
+	}
+
+	private boolean processHeaders () {
+		long scanned = StompScanner.scanLine (buffer, scan, limit);
+		if ( separator < 0 ) { separator = StompScanner.separator (scanned); }
+
+		int line = StompScanner.newline (scanned);
+		if ( line < 0 ) {
+			limits.checkHeaderLength (limit - lineStart - 1);
+			limits.checkFrameSize (limit - frameStart);
+			scan = limit;
+			return false;
+		}
+
+		int end = line > lineStart && buffer[line - 1] == '\r' ? line - 1 : line;
+		limits.checkHeaderLength (end - lineStart);
+		limits.checkFrameSize (line + 1 - frameStart);
+
+		if ( commandLine ) {
+			commandLine = false;
+			commandEnd = end - frameStart;
+		} else if ( end == lineStart ) {
+			bodyStart = line + 1;
+			if ( contentLength >= 0 ) {
+				checkLength ();
+				limits.checkFrameSize (bodyStart - frameStart + contentLength + 1);
+			}
+			state = BODY;
+		} else {
+			limits.checkHeaders (headerCount + 1);
+			if ( separator < 0 ) { failMessage ("Expected a header but no colon found."); }
+			if ( separator == lineStart ) { failMessage ("Header without a name."); }
+			addLine (separator, line > separator + 1 && buffer[line - 1] == '\r' ? line - 1 : line);
+			if ( contentLength < 0 && startsWith (lineStart, end, CONTENT_LENGTH) ) {
+				contentLength = parseLength (lineStart + CONTENT_LENGTH.length, end);
+			}
+		}
+
+		lineStart = scan = line + 1;
+		separator = -1;
+		return true;
+	}
+
+	private boolean processBody (Consumer<StompFrame> consumer) {
+		int frameEnd;
+		int bodyEnd;
+
+		if ( spills (contentLength) ) {
+			startSpill ();
+			return true;
+		}
+
+		if ( contentLength >= 0 ) {
+			long terminator = bodyStart + contentLength;
+			if ( terminator >= limit ) {
+				scan = limit;
+				return false;
+			}
+			if ( buffer[(int) terminator] != '\0' ) {
+				failMessage ("Frame body not terminated by a NULL after content-length bytes.");
+			}
+			frameEnd = (int) terminator + 1;
+			bodyEnd = (int) terminator;
+		} else {
+			int nul = findChar ('\0', scan);
+			if ( nul < 0 ) { checkUnterminated (limit - bodyStart); }
+			if ( nul < 0 && spills (limit - bodyStart) ) {
+				startSpill ();
+				return true;
+			}
+			if ( nul < 0 ) {
+				scan = limit;
+				return false;
+			}
+			frameEnd = nul + 1;
+			bodyEnd = nul;
+		}
+
+		StompFrame frame;
+		int length = frameEnd - frameStart;
+		int body = bodyStart - frameStart;
+		if ( reusable != null ) {
+			frame = reusable.decoded (
+				buffer, frameStart, length, commandEnd, lines, headerCount, body, bodyEnd - frameStart, parseNanos ()
+			);
+		} else {
+			frame = StompFrame.decoded (
+				buffer, frameStart, length, null, commandEnd, lines, headerCount, body, bodyEnd - frameStart, parseNanos ()
+			);
+			shared = true;
+		}
+		scan = frameStart = frameEnd;
+		state = IDLE;
+
+		consumer.accept (frame);
+		return true;
+	}
+
+	private void startSpill () {
+		spill = StompSpilledBody.create (spillDirectory);
+		spillLeft = contentLength;
+		scan = bodyStart;
+		state = SPILL;
+	}
+
+	private boolean processSpill (Consumer<StompFrame> consumer) {
+		if ( spillLeft > 0 ) {
+			int length = (int) Math.min (spillLeft, limit - scan);
+			spill.write (buffer, scan, length);
+			spillLeft -= length;
+			scan += length;
+		}
+
+		if ( contentLength >= 0 ) {
+			if ( scan == limit ) { return dropSpilled (); }
+			if ( buffer[scan] != '\0' ) {
+				failMessage ("Frame body not terminated by a NULL after content-length bytes.");
+			}
+			return finishSpill (scan + 1, consumer);
+		}
+
+		int nul = findChar ('\0', scan);
+		if ( nul < 0 ) {
+			spill.write (buffer, scan, limit - scan);
+			checkUnterminated (spill.length ());
+			return dropSpilled ();
+		}
+
+		spill.write (buffer, scan, nul - scan);
+		return finishSpill (nul + 1, consumer);
+	}
+
+	private boolean spillFromChunk (ByteBuffer chunk) {
+		ByteBuffer slice = chunk.duplicate ();
+
+		if ( contentLength >= 0 ) {
+			if ( spillLeft == 0 ) { return false; }
+			slice.limit (slice.position () + (int) Math.min (spillLeft, chunk.remaining ()));
+			spillLeft -= slice.remaining ();
+		} else {
+			int nul = chunk.position ();
+			while ( nul < chunk.limit () && chunk.get (nul) != '\0' ) { nul++; }
+			if ( nul == chunk.position () ) { return false; }
+			slice.limit (nul);
+		}
+
+		chunk.position (slice.limit ());
+		spill.write (slice);
+		if ( contentLength < 0 ) { checkUnterminated (spill.length ()); }
+		return true;
+	}
+
+	private void checkUnterminated (long body) {
+		limits.checkBodySize (body);
+		limits.checkFrameSize (bodyStart - frameStart + body);
+	}
+
+	private boolean dropSpilled () {
+		limit = scan = bodyStart;
+		return false;
+	}
+
+	private boolean finishSpill (int frameEnd, Consumer<StompFrame> consumer) {
+		int length = bodyStart - frameStart;
+		StompFrame frame = StompFrame.decoded (
+			buffer, frameStart, length, spill, commandEnd, lines, headerCount, length, length, parseNanos ()
+		);
+		shared = true;
+		spill = null;
+		scan = frameStart = frameEnd;
+		state = IDLE;
+
+		consumer.accept (frame);
+		return true;
+	}
+
+	private void addLine (int sep, int end) {
+		if ( 3 * headerCount == lines.length ) { lines = Arrays.copyOf (lines, lines.length * 2); }
+
+		int index = 3 * headerCount++;
+		lines[index] = lineStart - frameStart;
+		lines[index + 1] = sep - frameStart;
+		lines[index + 2] = end - frameStart;
+	}
+
+	private long parseNanos () {
+		if ( StompFrame.metrics () == StompMetrics.NONE ) { return 0; }
+		return parseNanos + System.nanoTime () - parseMark;
+	}
+
+	private StompFrame ping () {
+		return reusable != null ? reusable.reset (PING, 0, 1) : StompFrame.ping ();
+	}
+
+	private void ensureCapacity (int required) {
+		if ( buffer.length - limit >= required ) { return; }
+
+		int pending = limit - frameStart;
+		byte [] target = buffer;
+
+		if ( shared || pending + required > buffer.length ) {
+			int size = buffer.length;
+			while ( size < pending + required ) { size <<= 1; }
+			target = new byte [size];
+			shared = false;
+		}
+
+		System.arraycopy (buffer, frameStart, target, 0, pending);
+		buffer = target;
+		limit -= frameStart;
+		scan -= frameStart;
+		lineStart -= frameStart;
+		bodyStart -= frameStart;
+		if ( separator >= 0 ) { separator -= frameStart; }
+		frameStart = 0;
+	}
+
+	private int findChar (char c, int from) {
+		return StompScanner.indexOf (buffer, from, limit, (byte) c);
+	}
+
+	private boolean startsWith (int from, int to, byte [] prefix) {
+		if ( to - from < prefix.length ) { return false; }
+		for ( int i = 0; i < prefix.length; i++ ) {
+			if ( buffer[from + i] != prefix[i] ) { return false; }
+		}
+		return true;
+	}
+
+	private long parseLength (int from, int to) {
+		long length;
+		try { length = StompHeaderCodec.parseLong (buffer, from, to); }
+		catch (NumberFormatException e) { length = -1; }
+		if ( StompScanner.indexOf (buffer, from, to, (byte) '+') >= 0 ) { length = -1; }
+		if ( length < 0 ) { failMessage ("Invalid content-length header."); }
+		return length;
+	}
+
+	private void checkLength () {
+		/* only bodies that go to a spill file may outgrow a byte array */
+		if ( ! spills (contentLength) && contentLength > Integer.MAX_VALUE - (bodyStart - frameStart) - 1 ) {
+			failMessage ("content length too large");
+		}
+		limits.checkBodySize (contentLength);
+	}
+
+	private boolean spills (long length) {
+		return length > spillThreshold;
+	}
+
+	private void failMessage (String reason) {
+		StompFrame.metrics ().malformed (StompProtocolException.Reason.MALFORMED);
+		throw new StompProtocolException (reason);
+	}
+
+}
@@ -0,0 +1,204 @@
+package org.tutske.lib.stomp;
+
+import java.io.Closeable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+
+public class StompDispatcher<S> implements Closeable {
+
+	private final Lane<S> [] lanes;
+	private final Thread [] workers;
+	private volatile boolean running = true;
+
+	public StompDispatcher (int lanes, int capacity, BiConsumer<? super S, StompFrame> handler) {
+		this (lanes, capacity, handler, runnable -> {
+			Thread thread = new Thread (runnable, "stomp-dispatch");
+			thread.setDaemon (true);
+			return thread;
+		});
+	}
+
+	@SuppressWarnings ("unchecked")
+	public StompDispatcher (int lanes, int capacity, BiConsumer<? super S, StompFrame> handler, ThreadFactory factory) {
+		if ( lanes <= 0 ) { throw new IllegalArgumentException ("Need at least one lane, got " + lanes); }
+
+		int size = Integer.highestOneBit (Math.max (2, capacity - 1)) << 1;
+		this.lanes = (Lane<S> []) new Lane<?> [lanes];
+		this.workers = new Thread [lanes];
+
+		for ( int i = 0; i < lanes; i++ ) {
+			Lane<S> lane = new Lane<> (size);
+			this.lanes[i] = lane;
+			this.workers[i] = factory.newThread (() -> work (lane, handler));
+			lane.worker = workers[i];
+		}
+		for ( Thread worker : workers ) { worker.start (); }
+	}
+
+	public int lanes () {
+		return lanes.length;
+	}
+
+	public int lane (S session) {
+		int hash = session.hashCode ();
+		hash ^= hash >>> 16;
+		return Math.floorMod (hash, lanes.length);
+	}
+
+	public boolean offer (S session, StompFrame frame) {
+		if ( ! running ) { throw new IllegalStateException ("Dispatcher is closed"); }
+
+		Lane<S> lane = lanes[lane (session)];
+		if ( lane.offer (session, frame) ) { return true; }
+		lane.reject ();
+		return false;
+	}
+
+	public void submit (S session, StompFrame frame) throws InterruptedException {
+		if ( ! running ) { throw new IllegalStateException ("Dispatcher is closed"); }
+
+		Lane<S> lane = lanes[lane (session)];
+		for ( int spins = 0; ! lane.offer (session, frame); spins++ ) {
+			if ( Thread.interrupted () ) { throw new InterruptedException (); }
+			if ( spins < 100 ) { Thread.onSpinWait (); }
+			else { LockSupport.parkNanos (TimeUnit.MICROSECONDS.toNanos (50)); }
+		}
+	}
+
+	public int depth (int lane) {
+		return lanes[lane].depth ();
+	}
+
+	public int highWatermark (int lane) {
+		return lanes[lane].highWatermark;
+	}
+
+	public long processed (int lane) {
+		return (long) Lane.HEAD.getAcquire (lanes[lane]);
+	}
+
+	public long rejected (int lane) {
+		return lanes[lane].rejected;
+	}
+
+	@Override
+	public void close () {
+		running = false;
+		for ( Lane<S> lane : lanes ) { LockSupport.unpark (lane.worker); }
+		for ( Thread worker : workers ) {
+			if ( worker == Thread.currentThread () ) { continue; }
+			try { worker.join (); }
+			catch (InterruptedException e) { Thread.currentThread ().interrupt (); return; }
+		}
+	}
+
+	private void work (Lane<S> lane, BiConsumer<? super S, StompFrame> handler) {
+		int idle = 0;
+		while ( true ) {
+			if ( lane.poll (handler) ) {
+				idle = 0;
+				continue;
+			}
+			if ( ! running && lane.depth () == 0 ) { return; }
+
+			if ( idle++ < 100 ) {
+				Thread.onSpinWait ();
+			} else {
+				lane.parked = true;
+				if ( lane.depth () == 0 && running ) { LockSupport.parkNanos (TimeUnit.MILLISECONDS.toNanos (1)); }
+				lane.parked = false;
+			}
+		}
+	}
+
+	/*
+	 * Many producers, single consumer: producers serialise on the lane's monitor to claim the tail slot, so offer
+	 * and submit can be called from any thread, while the worker polls without taking the lock.
+	 */
+	private static final class Lane<S> {
+		private static final VarHandle HEAD;
+		private static final VarHandle TAIL;
+
+		static {
+			try {
+				MethodHandles.Lookup lookup = MethodHandles.lookup ();
+				HEAD = lookup.findVarHandle (Lane.class, "head", long.class);
+				TAIL = lookup.findVarHandle (Lane.class, "tail", long.class);
+			} catch (ReflectiveOperationException e) {
+				throw new ExceptionInInitializerError (e);
+			}
+		}
+
+		private final Object [] sessions;
+		private final StompFrame [] frames;
+		private final int mask;
+		private Thread worker;
+
+		private long head = 0;
+		private long tail = 0;
+		private long cachedHead = 0;
+		private volatile boolean parked = false;
+		private volatile int highWatermark = 0;
+		private volatile long rejected = 0;
+
+		private Lane (int size) {
+			this.sessions = new Object [size];
+			this.frames = new StompFrame [size];
+			this.mask = size - 1;
+		}
+
+		private synchronized void reject () {
+			rejected++;
+		}
+
+		private synchronized boolean offer (S session, StompFrame frame) {
+			long tail = this.tail;
+			if ( tail - cachedHead >= frames.length ) {
+				cachedHead = (long) HEAD.getAcquire (this);
+				if ( tail - cachedHead >= frames.length ) { return false; }
+			}
+
+			int index = (int) tail & mask;
+			sessions[index] = session;
+			frames[index] = frame;
+			TAIL.setRelease (this, tail + 1);
+
+			int depth = (int) (tail + 1 - (long) HEAD.getAcquire (this));
+			if ( depth > highWatermark ) { highWatermark = depth; }
+			if ( parked ) { LockSupport.unpark (worker); }
+			return true;
+		}
+
+		@SuppressWarnings ("unchecked")
+		private boolean poll (BiConsumer<? super S, StompFrame> handler) {
+			long head = this.head;
+			if ( head == (long) TAIL.getAcquire (this) ) { return false; }
+
+			int index = (int) head & mask;
+			S session = (S) sessions[index];
+			StompFrame frame = frames[index];
+			sessions[index] = null;
+			frames[index] = null;
+
+			try {
+				handler.accept (session, frame);
+			} catch (RuntimeException e) {
+				Thread current = Thread.currentThread ();
+				current.getUncaughtExceptionHandler ().uncaughtException (current, e);
+			} finally {
+				HEAD.setRelease (this, head + 1);
+			}
+			return true;
+		}
+
+		private int depth () {
+			return (int) ((long) TAIL.getAcquire (this) - (long) HEAD.getAcquire (this));
+		}
+	}
+
+}
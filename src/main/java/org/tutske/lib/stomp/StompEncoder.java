@@ -0,0 +1,149 @@
+package org.tutske.lib.stomp;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+
+
+public class StompEncoder {
+
+	private static final ByteBuffer NUL = ByteBuffer.wrap (new byte [] { '\0' }).asReadOnlyBuffer ();
+
+	private ByteBuffer head = ByteBuffer.allocate (512);
+
+	public static int encodedLength (String command, Map<String, ?> headers, byte [] body) {
+		return headLength (command, headers) + body.length + 1;
+	}
+
+	public static int encode (String command, Map<String, ?> headers, byte [] body, ByteBuffer target) {
+		int length = encodedLength (command, headers, body);
+		if ( target.remaining () < length ) { throw new BufferOverflowException (); }
+
+		writeHead (command, headers, target);
+		target.put (body);
+		target.put ((byte) '\0');
+
+		return length;
+	}
+
+	public static long write (StompFrame frame, WritableByteChannel channel) throws IOException {
+		if ( ! frame.isSpilled () ) { return writeFully (channel, frame.rawBuffer ()); }
+
+		long written = writeFully (channel, ByteBuffer.wrap (frame.array (), frame.offset (), frame.length ()));
+		written += frame.spilledBody ().transferTo (channel);
+		return written + writeFully (channel, NUL.duplicate ());
+	}
+
+	public long write (String command, Map<String, ?> headers, byte [] body, WritableByteChannel channel)
+	throws IOException {
+		int length = headLength (command, headers);
+		if ( head.capacity () < length ) {
+			head = ByteBuffer.allocate (Math.max (length, head.capacity () * 2));
+		}
+
+		head.clear ();
+		writeHead (command, headers, head);
+		head.flip ();
+
+		return writeFully (channel, head, ByteBuffer.wrap (body), NUL.duplicate ());
+	}
+
+	static StompFrame frame (String command, Map<String, ?> headers, byte [] body) {
+		return new StompFrameBuilder (command, encodedLength (command, headers, body))
+			.headers (headers)
+			.body (body)
+			.build ();
+	}
+
+	private static int headLength (String command, Map<String, ?> headers) {
+		boolean escape = StompHeaderCodec.escapes (command);
+		int length = StompHeaderCodec.encodedLength (command, false) + 2;
+		for ( Map.Entry<String, ?> entry : headers.entrySet () ) {
+			length += StompHeaderCodec.encodedLength (entry.getKey (), escape) + 2;
+			length += valueLength (entry.getValue (), escape);
+		}
+		return length;
+	}
+
+	private static void writeHead (String command, Map<String, ?> headers, ByteBuffer target) {
+		boolean escape = StompHeaderCodec.escapes (command);
+		StompHeaderCodec.encode (command, false, target);
+		target.put ((byte) '\n');
+
+		for ( Map.Entry<String, ?> entry : headers.entrySet () ) {
+			StompHeaderCodec.encode (entry.getKey (), escape, target);
+			target.put ((byte) ':');
+			writeValue (entry.getValue (), escape, target);
+			target.put ((byte) '\n');
+		}
+
+		target.put ((byte) '\n');
+	}
+
+	private static long writeFully (WritableByteChannel channel, ByteBuffer ... buffers) throws IOException {
+		long written = 0;
+
+		if ( channel instanceof GatheringByteChannel ) {
+			GatheringByteChannel gathering = (GatheringByteChannel) channel;
+			while ( buffers[buffers.length - 1].hasRemaining () ) {
+				written += gathering.write (buffers);
+			}
+			return written;
+		}
+
+		for ( ByteBuffer buffer : buffers ) {
+			while ( buffer.hasRemaining () ) { written += channel.write (buffer); }
+		}
+		return written;
+	}
+
+	static int valueLength (Object value, boolean escape) {
+		return isInteger (value) ?
+			digits (((Number) value).longValue ()) :
+			StompHeaderCodec.encodedLength (text (value), escape);
+	}
+
+	static void writeValue (Object value, boolean escape, ByteBuffer target) {
+		if ( isInteger (value) ) { writeLong (((Number) value).longValue (), target); }
+		else { StompHeaderCodec.encode (text (value), escape, target); }
+	}
+
+	private static boolean isInteger (Object value) {
+		return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+	}
+
+	private static CharSequence text (Object value) {
+		return value instanceof CharSequence ? (CharSequence) value : value.toString ();
+	}
+
+	static int digits (long value) {
+		if ( value == Long.MIN_VALUE ) { return 20; }
+		int length = value < 0 ? 2 : 1;
+		for ( long v = Math.abs (value); v >= 10; v /= 10 ) { length++; }
+		return length;
+	}
+
+	static void writeLong (long value, ByteBuffer target) {
+		if ( value == Long.MIN_VALUE ) {
+			StompHeaderCodec.encode (Long.toString (value), false, target);
+			return;
+		}
+
+		if ( value < 0 ) {
+			target.put ((byte) '-');
+			value = -value;
+		}
+
+		int position = target.position ();
+		int length = digits (value);
+		for ( int i = length - 1; i >= 0; i-- ) {
+			target.put (position + i, (byte) ('0' + value % 10));
+			value /= 10;
+		}
+		target.position (position + length);
+	}
+
+}
@@ -0,0 +1,314 @@
+package org.tutske.lib.stomp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+
+public class StompEngine implements Executor, Closeable {
+
+	private static final int READ_BUFFER = 64 * 1024;
+	private static final int CONNECTION_BUFFER = 256;
+
+	private final StompHandler handler;
+	private final Selector selector;
+	private final Thread thread;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<> ();
+	private final PriorityQueue<Timer> timers = new PriorityQueue<> ();
+	private final StompBatching.Stats stats = new StompBatching.Stats ();
+	private final ByteBuffer chunk = ByteBuffer.allocateDirect (READ_BUFFER);
+	private volatile boolean running = true;
+	private volatile StompBatching batching = StompBatching.LATENCY;
+	private volatile StompLimits limits = StompLimits.DEFAULT;
+	private volatile boolean websocket = false;
+	private volatile boolean binary = false;
+	private volatile long lowWatermark = Long.MAX_VALUE;
+	private volatile long highWatermark = Long.MAX_VALUE;
+
+	public StompEngine (StompHandler handler) {
+		this (handler, runnable -> new Thread (runnable, "stomp-engine"));
+	}
+
+	public StompEngine (StompHandler handler, ThreadFactory factory) {
+		try { this.selector = Selector.open (); }
+		catch (IOException e) { throw new UncheckedIOException ("Could not open a selector", e); }
+
+		this.handler = handler;
+		this.thread = factory.newThread (this::loop);
+		this.thread.start ();
+	}
+
+	public CompletableFuture<InetSocketAddress> listen (InetSocketAddress address) {
+		CompletableFuture<InetSocketAddress> future = new CompletableFuture<> ();
+		execute (() -> {
+			try {
+				ServerSocketChannel server = ServerSocketChannel.open ();
+				server.configureBlocking (false);
+				server.bind (address, 1024);
+				server.register (selector, SelectionKey.OP_ACCEPT);
+				future.complete ((InetSocketAddress) server.getLocalAddress ());
+			} catch (IOException e) {
+				future.completeExceptionally (e);
+			}
+		});
+		return future;
+	}
+
+	public CompletableFuture<StompConnection> connect (InetSocketAddress address) {
+		CompletableFuture<StompConnection> future = new CompletableFuture<> ();
+		execute (() -> {
+			try {
+				SocketChannel channel = SocketChannel.open ();
+				configure (channel);
+				SelectionKey key = channel.register (selector, 0, future);
+				if ( channel.connect (address) ) { future.complete (open (key, false)); }
+				else { key.interestOps (SelectionKey.OP_CONNECT); }
+			} catch (IOException e) {
+				future.completeExceptionally (e);
+			}
+		});
+		return future;
+	}
+
+	public StompEngine batching (StompBatching batching) {
+		this.batching = batching;
+		return this;
+	}
+
+	public StompEngine limits (StompLimits limits) {
+		this.limits = limits;
+		return this;
+	}
+
+	public StompEngine watermarks (long low, long high) {
+		if ( low < 0 || high < low ) {
+			throw new IllegalArgumentException ("Invalid watermarks: " + low + " - " + high);
+		}
+		this.lowWatermark = low;
+		this.highWatermark = high;
+		return this;
+	}
+
+	public StompEngine websocket (boolean websocket) {
+		return websocket (websocket, false);
+	}
+
+	public StompEngine websocket (boolean websocket, boolean binary) {
+		this.websocket = websocket;
+		this.binary = binary;
+		return this;
+	}
+
+	public StompBatching.Stats stats () {
+		return stats;
+	}
+
+	@Override
+	public void execute (Runnable task) {
+		tasks.add (task);
+		if ( Thread.currentThread () != thread ) { selector.wakeup (); }
+	}
+
+	public boolean isRunning () {
+		return running;
+	}
+
+	@Override
+	public void close () {
+		running = false;
+		selector.wakeup ();
+		if ( Thread.currentThread () == thread ) { return; }
+
+		try { thread.join (); }
+		catch (InterruptedException e) { Thread.currentThread ().interrupt (); }
+	}
+
+	void schedule (Runnable task, long due) {
+		execute (() -> timers.add (new Timer (task, due)));
+	}
+
+	void writable (StompConnection connection) {
+		handler.onWritable (connection);
+	}
+
+	void close (StompConnection connection, Throwable cause) {
+		if ( ! connection.isOpen () ) { return; }
+		connection.closeChannel ();
+		handler.onClose (connection, cause);
+	}
+
+	private void loop () {
+		try {
+			while ( running ) {
+				select ();
+				runTasks ();
+				runTimers ();
+				for ( SelectionKey key : selector.selectedKeys () ) {
+					try { handle (key); }
+					catch (RuntimeException e) { uncaught (e); }
+				}
+				selector.selectedKeys ().clear ();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException ("Stomp engine stopped unexpectedly", e);
+		} finally {
+			shutdown ();
+		}
+	}
+
+	private void select () throws IOException {
+		if ( ! tasks.isEmpty () ) {
+			selector.selectNow ();
+		} else if ( timers.isEmpty () ) {
+			selector.select ();
+		} else {
+			long wait = timers.peek ().due - System.nanoTime ();
+			if ( wait <= 0 ) { selector.selectNow (); }
+			else { selector.select (Math.max (1, TimeUnit.NANOSECONDS.toMillis (wait + 999_999))); }
+		}
+	}
+
+	private void runTimers () {
+		long now = System.nanoTime ();
+		while ( ! timers.isEmpty () && timers.peek ().due - now <= 0 ) {
+			run (timers.poll ().task);
+		}
+	}
+
+	private void runTasks () {
+		Runnable task;
+		while ( (task = tasks.poll ()) != null ) { run (task); }
+	}
+
+	private void run (Runnable task) {
+		try { task.run (); }
+		catch (RuntimeException e) { uncaught (e); }
+	}
+
+	private void uncaught (RuntimeException e) {
+		Thread current = Thread.currentThread ();
+		current.getUncaughtExceptionHandler ().uncaughtException (current, e);
+	}
+
+	private void handle (SelectionKey key) {
+		if ( ! key.isValid () ) { return; }
+
+		if ( key.isAcceptable () ) {
+			accept ((ServerSocketChannel) key.channel ());
+			return;
+		}
+
+		if ( key.isConnectable () ) {
+			finishConnect (key);
+			return;
+		}
+
+		StompConnection connection = (StompConnection) key.attachment ();
+		try {
+			if ( key.isWritable () ) { connection.drain (); }
+			if ( key.isValid () && key.isReadable () ) { connection.read (chunk, handler); }
+		} catch (IOException | RuntimeException e) {
+			close (connection, e);
+		}
+	}
+
+	private void accept (ServerSocketChannel server) {
+		while ( true ) {
+			SocketChannel channel;
+			try { channel = server.accept (); }
+			catch (IOException e) { return; }
+			if ( channel == null ) { return; }
+
+			try {
+				configure (channel);
+				open (channel.register (selector, 0), websocket);
+			} catch (IOException e) {
+				// the accepted connection was reset before it could be set up, drop it and keep listening
+				try { channel.close (); } catch (IOException ignore) {}
+			}
+		}
+	}
+
+	@SuppressWarnings ("unchecked")
+	private void finishConnect (SelectionKey key) {
+		SocketChannel channel = (SocketChannel) key.channel ();
+		CompletableFuture<StompConnection> future = (CompletableFuture<StompConnection>) key.attachment ();
+		try {
+			channel.finishConnect ();
+			future.complete (open (key, false));
+		} catch (IOException e) {
+			key.cancel ();
+			try { channel.close (); } catch (IOException ignore) {}
+			future.completeExceptionally (e);
+		}
+	}
+
+	private StompConnection open (SelectionKey key, boolean websocket) {
+		StompConnection connection = new StompConnection (
+			this, (SocketChannel) key.channel (), CONNECTION_BUFFER, batching, limits, websocket, binary
+		);
+		connection.watermarks (lowWatermark, highWatermark);
+		connection.register (key);
+		key.attach (connection);
+		key.interestOps (SelectionKey.OP_READ);
+		try { handler.onOpen (connection); }
+		catch (RuntimeException e) { close (connection, e); }
+		return connection;
+	}
+
+	private void configure (SocketChannel channel) throws IOException {
+		channel.configureBlocking (false);
+		channel.setOption (StandardSocketOptions.TCP_NODELAY, true);
+	}
+
+	private void shutdown () {
+		running = false;
+		runTasks ();
+		for ( SelectionKey key : selector.keys () ) {
+			if ( key.attachment () instanceof StompConnection ) {
+				StompConnection connection = (StompConnection) key.attachment ();
+				try { connection.drain (); }
+				catch (IOException | RuntimeException ignore) {}
+				close (connection, null);
+			} else if ( key.attachment () instanceof CompletableFuture ) {
+				((CompletableFuture<?>) key.attachment ()).completeExceptionally (
+					new IllegalStateException ("Stomp engine closed")
+				);
+			}
+			try { key.channel ().close (); }
+			catch (IOException ignore) {}
+		}
+		try { selector.close (); }
+		catch (IOException ignore) {}
+	}
+
+	private static class Timer implements Comparable<Timer> {
+		private final Runnable task;
+		private final long due;
+
+		private Timer (Runnable task, long due) {
+			this.task = task;
+			this.due = due;
+		}
+
+		@Override
+		public int compareTo (Timer other) {
+			return Long.compare (due - other.due, 0);
+		}
+	}
+
+}
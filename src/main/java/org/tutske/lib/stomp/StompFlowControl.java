@@ -0,0 +1,183 @@
+package org.tutske.lib.stomp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+
+public class StompFlowControl<T> {
+
+	public static final String PREFETCH = "activemq.prefetchSize";
+
+	public static interface Delivery<T> {
+		public void deliver (String subscription, long ackId, T message);
+		public default void resumed (String subscription) {}
+	}
+
+	private final BooleanSupplier writable;
+	private final int defaultPrefetch;
+	private final Delivery<T> delivery;
+	private final Map<String, Subscription<T>> subscriptions = new HashMap<> ();
+	private final List<Subscription<T>> byIndex = new ArrayList<> ();
+	private final ArrayDeque<Integer> free = new ArrayDeque<> ();
+	private long [] retired = new long [8];
+
+	private long delivered = 0;
+	private long creditStalls = 0;
+	private long writeStalls = 0;
+	private long resumes = 0;
+
+	public StompFlowControl (StompConnection connection, int defaultPrefetch, Delivery<T> delivery) {
+		this (connection::isWritable, defaultPrefetch, delivery);
+	}
+
+	StompFlowControl (BooleanSupplier writable, int defaultPrefetch, Delivery<T> delivery) {
+		this.writable = writable;
+		this.defaultPrefetch = defaultPrefetch;
+		this.delivery = delivery;
+	}
+
+	public synchronized void subscribe (StompFrame frame) {
+		String id = frame.header (StompHeaders.ID);
+		if ( id == null ) { throw new StompProtocolException ("SUBSCRIBE without an id header"); }
+		if ( subscriptions.containsKey (id) ) { throw new StompProtocolException ("subscription " + id + " already exists"); }
+
+		StompAckTracker.Mode mode = StompAckTracker.Mode.of (frame.header (StompHeaders.ACK));
+		int prefetch = prefetch (frame);
+
+		int index = free.isEmpty () ? byIndex.size () : free.poll ();
+		if ( index == byIndex.size () ) { byIndex.add (null); }
+		if ( index == retired.length ) { retired = Arrays.copyOf (retired, index * 2); }
+
+		StompAckTracker<T> tracker = new StompAckTracker<> (index, mode, prefetch, retired[index]);
+		Subscription<T> subscription = new Subscription<> (id, index, tracker);
+		subscriptions.put (id, subscription);
+		byIndex.set (index, subscription);
+	}
+
+	public int unsubscribe (String id, Consumer<? super T> redeliver) {
+		List<T> messages = new ArrayList<> ();
+		synchronized ( this ) {
+			Subscription<T> subscription = subscriptions.remove (id);
+			if ( subscription == null ) { return 0; }
+			subscription.tracker.nackAll (messages::add);
+
+			/* later subscriptions on this index continue the sequence, so stale ack ids never match them */
+			retired[subscription.index] = subscription.tracker.nextSequence ();
+			byIndex.set (subscription.index, null);
+			free.add (subscription.index);
+		}
+		messages.forEach (redeliver);
+		return messages.size ();
+	}
+
+	public boolean offer (String id, T message) {
+		long ackId;
+		synchronized ( this ) {
+			Subscription<T> subscription = subscriptions.get (id);
+			if ( subscription == null ) { throw new IllegalArgumentException ("Unknown subscription " + id); }
+
+			if ( subscription.tracker.credit () == 0 ) {
+				if ( ! subscription.paused ) { creditStalls++; }
+				subscription.paused = true;
+				return false;
+			}
+			if ( ! writable.getAsBoolean () ) {
+				if ( ! subscription.paused ) { writeStalls++; }
+				subscription.paused = true;
+				return false;
+			}
+
+			delivered++;
+			subscription.paused = false;
+			ackId = subscription.tracker.track (message);
+		}
+		delivery.deliver (id, ackId, message);
+		return true;
+	}
+
+	public int handle (StompFrame frame, Consumer<? super T> redeliver) {
+		List<T> messages = new ArrayList<> ();
+		int released;
+		synchronized ( this ) {
+			long ackId = ackId (frame);
+			int index = StompAckTracker.subscription (ackId);
+			Subscription<T> subscription = index < byIndex.size () ? byIndex.get (index) : null;
+			if ( subscription == null ) { return 0; }
+
+			/* the id comes from the client, ids the tracker never handed out are a protocol error */
+			try { released = subscription.tracker.handle (frame, messages::add); }
+			catch (IllegalArgumentException e) { throw new StompProtocolException (e.getMessage ()); }
+		}
+		messages.forEach (redeliver);
+		if ( released > 0 ) { resume (); }
+		return released;
+	}
+
+	public void resume () {
+		List<String> resumed = new ArrayList<> ();
+		synchronized ( this ) {
+			if ( ! writable.getAsBoolean () ) { return; }
+			for ( Subscription<T> subscription : subscriptions.values () ) {
+				if ( subscription.paused && subscription.tracker.credit () > 0 ) {
+					subscription.paused = false;
+					resumes++;
+					resumed.add (subscription.id);
+				}
+			}
+		}
+		for ( String id : resumed ) { delivery.resumed (id); }
+	}
+
+	public synchronized boolean isPaused (String id) {
+		Subscription<T> subscription = subscriptions.get (id);
+		return subscription != null && subscription.paused;
+	}
+
+	public synchronized int credit (String id) {
+		Subscription<T> subscription = subscriptions.get (id);
+		return subscription == null ? 0 : subscription.tracker.credit ();
+	}
+
+	public synchronized int pending (String id) {
+		Subscription<T> subscription = subscriptions.get (id);
+		return subscription == null ? 0 : subscription.tracker.pending ();
+	}
+
+	public synchronized long delivered () { return delivered; }
+	public synchronized long creditStalls () { return creditStalls; }
+	public synchronized long writeStalls () { return writeStalls; }
+	public synchronized long resumes () { return resumes; }
+
+	private long ackId (StompFrame frame) {
+		long ackId;
+		try { ackId = frame.headerLong (StompHeaders.ID, -1); }
+		catch (NumberFormatException e) { ackId = -1; }
+		if ( ackId < 0 ) { throw new StompProtocolException (frame.command () + " without a numeric id header"); }
+		return ackId;
+	}
+
+	private int prefetch (StompFrame frame) {
+		try { return frame.headerInt (PREFETCH, defaultPrefetch); }
+		catch (NumberFormatException e) { throw new StompProtocolException ("invalid " + PREFETCH + " header"); }
+	}
+
+	private static class Subscription<T> {
+		private final String id;
+		private final int index;
+		private final StompAckTracker<T> tracker;
+		private boolean paused = false;
+
+		private Subscription (String id, int index, StompAckTracker<T> tracker) {
+			this.id = id;
+			this.index = index;
+			this.tracker = tracker;
+		}
+	}
+
+}
@@ -2,9 +2,8 @@ package org.tutske.lib.stomp;
 
 import org.tutske.lib.utils.PrimitivesParser;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
@@ -14,17 +13,30 @@ import java.util.Map;
 
 public class StompFrame {
 
-	private final byte [] data;
-	private final int start;
-	private final int end;
-	private final int len;
+	private static final byte [] EMPTY = {};
+
+	private static volatile StompMetrics metrics = StompMetrics.NONE;
+
+	private byte [] data;
+	private int start;
+	private int end;
+	private int len;
+	private boolean released;
 
 	private String command;
-	private Map<String, String> headers = new HashMap<> ();
+	private StompCommand type;
+	private boolean escaped;
+	private int [] offsets;
+	private int headerCount = 0;
+	private Map<String, String> headers;
+	private int bodyStart;
+	private int bodyEnd;
 	private byte [] body;
+	private StompSpilledBody spilled;
+	private boolean retained;
 
 	public static StompFrame ping () {
-		StompFrame frame = new StompFrame (new byte [] { '\n' }, 0, 1);
+		StompFrame frame = new StompFrame (new byte [] { '\n' }, 0, 1, StompLimits.NONE);
 		frame.command = "PING";
 		return frame;
 	}
@@ -34,8 +46,12 @@ public class StompFrame {
 	}
 
 	public static StompFrame fromRaw (byte [] data, int start, int len) {
+		return fromRaw (data, start, len, StompLimits.DEFAULT);
+	}
+
+	public static StompFrame fromRaw (byte [] data, int start, int len, StompLimits limits) {
 		if ( data.length < 2 && data[0] == '\n' ) { return ping (); }
-		else { return new StompFrame (data, start, len); }
+		else { return new StompFrame (data, start, len, limits); }
 	}
 
 	public static StompFrame fromData (String command) {
@@ -51,154 +67,405 @@ public class StompFrame {
 	}
 
 	public static StompFrame fromData (String command, Map<String, Object> headers, byte [] content) {
-		try ( ByteArrayOutputStream stream = new ByteArrayOutputStream (content.length) ) {
-			stream.write (command.getBytes (StandardCharsets.UTF_8));
-			stream.write ('\n');
-
-			for ( Map.Entry<String, Object> entry : headers.entrySet () ) {
-				stream.write (encode (entry.getKey ()).getBytes (StandardCharsets.UTF_8));
-				stream.write (':');
-				stream.write (encode (entry.getValue ().toString ()).getBytes (StandardCharsets.UTF_8));
-				stream.write ('\n');
-			}
+		return StompEncoder.frame (command, headers, content);
+	}
+
+	public static StompMetrics metrics () {
+		return metrics;
+	}
+
+	public static void metrics (StompMetrics metrics) {
+		StompFrame.metrics = metrics == null ? StompMetrics.NONE : metrics;
+	}
+
+	public static StompFrameBuilder builder (String command) {
+		return new StompFrameBuilder (command);
+	}
+
+	static StompFrame encoded (byte [] data, int len, String command, int [] offsets, int headers, int bodyStart, int bodyEnd) {
+		return new StompFrame (data, len, command, offsets, headers, bodyStart, bodyEnd);
+	}
+
+	/*
+	 * Frames the decoder already split into lines: all positions are relative to start and the limits have been
+	 * checked while decoding, so the bytes are not scanned a second time.
+	 *
+	 * The body file of a spilled frame is owned by the consumer the decoder hands the frame to. A StompConnection
+	 * closes it as soon as StompHandler.onFrame returns; handlers that keep the frame around longer should call
+	 * retain () and close the spilled body themselves once they are done with it.
+	 */
+	static StompFrame decoded (
+		byte [] data, int start, int len, StompSpilledBody spilled,
+		int commandEnd, int [] lines, int headers, int bodyStart, int bodyEnd, long nanos
+	) {
+		StompFrame frame = new StompFrame ();
+		frame.load (data, start, len, spilled, commandEnd, lines, headers, bodyStart, bodyEnd, nanos);
+		return frame;
+	}
+
+	StompFrame () {
+		this.data = EMPTY;
+		this.offsets = new int [3 * 8];
+	}
+
+	private StompFrame (byte [] data, int start, int len, StompLimits limits) {
+		this.data = data;
+		this.start = start;
+		this.len = len;
+		this.end = start + len;
+		this.offsets = new int [3 * 8];
+
+		parse (limits);
+	}
 
-			stream.write ('\n');
-			stream.write (content);
-			stream.write ('\0');
+	private StompFrame (byte [] data, int len, String command, int [] offsets, int headers, int bodyStart, int bodyEnd) {
+		this.data = data;
+		this.start = 0;
+		this.len = len;
+		this.end = len;
+
+		this.command = command;
+		this.type = StompCommand.of (command);
+		this.escaped = type == null || type.escapesHeaders ();
+		this.offsets = offsets;
+		this.headerCount = headers;
+		this.bodyStart = bodyStart;
+		this.bodyEnd = bodyEnd;
+	}
 
-			byte [] raw = stream.toByteArray ();
+	void load (byte [] data, int start, int len, StompLimits limits) {
+		clear (data, start, len, null);
 
-			return new StompFrame (raw, 0, raw.length);
-		} catch (IOException e) {
-			throw new RuntimeException ("Creating stomp frame failed", e);
+		if ( len == 1 && data[start] == '\n' ) {
+			command = "PING";
+			bodyStart = bodyEnd = end;
+		} else {
+			parse (limits);
 		}
 	}
 
-	private StompFrame (byte [] data, int start, int len) {
+	void load (
+		byte [] data, int start, int len, StompSpilledBody spilled,
+		int commandEnd, int [] lines, int headers, int bodyStart, int bodyEnd, long nanos
+	) {
+		clear (data, start, len, spilled);
+
+		this.type = StompCommand.match (data, start, start + commandEnd);
+		this.command = type == null ? new String (data, start, commandEnd, StandardCharsets.UTF_8) : type.name ();
+		this.escaped = type == null || type.escapesHeaders ();
+
+		if ( offsets.length < 3 * headers ) { offsets = new int [3 * headers]; }
+		for ( int i = 0; i < 3 * headers; i++ ) { offsets[i] = start + lines[i]; }
+		this.headerCount = headers;
+		this.bodyStart = start + bodyStart;
+		this.bodyEnd = start + bodyEnd;
+
+		StompMetrics metrics = StompFrame.metrics;
+		if ( metrics != StompMetrics.NONE ) {
+			long body = spilled != null ? spilled.length () : bodyEnd - bodyStart;
+			metrics.parsed (command, bodyStart, headers, body, nanos);
+		}
+	}
+
+	private void clear (byte [] data, int start, int len, StompSpilledBody spilled) {
 		this.data = data;
 		this.start = start;
 		this.len = len;
 		this.end = start + len;
+		this.released = false;
+
+		this.command = null;
+		this.type = null;
+		this.headerCount = 0;
+		this.headers = null;
+		this.body = null;
+		this.spilled = spilled;
+		this.retained = false;
+	}
+
+	public StompFrame retain () {
+		retained = true;
+		return this;
+	}
+
+	void releaseSpilled () {
+		if ( spilled == null || retained ) { return; }
+		try { spilled.close (); }
+		catch (IOException ignore) {}
+	}
+
+	void released (boolean released) {
+		this.released = released;
+	}
 
-		parse ();
+	byte [] array () {
+		return data;
+	}
+
+	int offset () {
+		return start;
+	}
+
+	int length () {
+		return len;
+	}
+
+	boolean escaped () {
+		return escaped;
+	}
+
+	long valueRange (String key) {
+		access ();
+		int index = indexOf (key);
+		if ( index < 0 ) { return -1; }
+		return ((long) (offsets[3 * index + 1] + 1) << 32) | offsets[3 * index + 2];
 	}
 
 	public String command () {
+		access ();
 		return command;
 	}
 
+	public StompCommand commandType () {
+		access ();
+		return type;
+	}
+
 	public boolean hasHeader (String key) {
-		return headers.containsKey (key);
+		access ();
+		if ( headers != null ) { return headers.containsKey (key); }
+		return indexOf (key) >= 0;
 	}
 
 	public String header (String key) {
-		return headers.get (key);
+		access ();
+		if ( headers != null ) { return headers.get (key); }
+		int index = indexOf (key);
+		return index < 0 ? null : value (index);
 	}
 
 	public <T> T header (String key, Class<T> clazz) {
 		return PrimitivesParser.parse (header (key).trim (), clazz);
 	}
 
+	public int headerInt (String key, int defaultValue) {
+		long value = headerLong (key, defaultValue);
+		if ( (int) value != value ) { throw new NumberFormatException ("Header " + key + " does not fit an int"); }
+		return (int) value;
+	}
+
+	public long headerLong (String key, long defaultValue) {
+		long range = valueRange (key);
+		if ( range < 0 ) { return defaultValue; }
+		return StompHeaderCodec.parseLong (data, (int) (range >>> 32), (int) range);
+	}
+
+	public boolean headerBoolean (String key, boolean defaultValue) {
+		long range = valueRange (key);
+		if ( range < 0 ) { return defaultValue; }
+		return StompHeaderCodec.parseBoolean (data, (int) (range >>> 32), (int) range);
+	}
+
 	public Map<String, String> headers () {
+		access ();
+		if ( headers == null ) {
+			Map<String, String> map = new HashMap<> ();
+			for ( int i = 0; i < headerCount; i++ ) {
+				map.putIfAbsent (key (i), value (i));
+			}
+			headers = map;
+		}
 		return headers;
 	}
 
 	public String getBody () {
-		return new String (body, Charset.forName ("utf-8"));
+		access ();
+		if ( spilled != null ) { return new String (getByteBody (), StandardCharsets.UTF_8); }
+		return new String (data, bodyStart, bodyEnd - bodyStart, StandardCharsets.UTF_8);
 	}
 
 	public byte [] getByteBody () {
+		access ();
+		if ( body == null && spilled != null ) {
+			body = new byte [bodyLength ()];
+			spilled.map ().get (body);
+		}
+		if ( body == null ) { body = Arrays.copyOfRange (data, bodyStart, bodyEnd); }
 		return body;
 	}
 
-	private void parse () {
+	public int bodyLength () {
+		access ();
+		if ( spilled != null ) { return Math.toIntExact (spilled.length ()); }
+		return bodyEnd - bodyStart;
+	}
+
+	public ByteBuffer bodyBuffer () {
+		access ();
+		if ( spilled != null ) { return spilled.map (); }
+		return ByteBuffer.wrap (data, bodyStart, bodyEnd - bodyStart).slice ().asReadOnlyBuffer ();
+	}
+
+	public boolean isSpilled () {
+		access ();
+		return spilled != null;
+	}
+
+	public StompSpilledBody spilledBody () {
+		access ();
+		return spilled;
+	}
+
+	private void parse (StompLimits limits) {
+		StompMetrics metrics = StompFrame.metrics;
+		if ( metrics == StompMetrics.NONE ) {
+			scan (limits);
+			return;
+		}
+
+		long started = System.nanoTime ();
+		scan (limits);
+		metrics.parsed (command, bodyStart - start, headerCount, bodyEnd - bodyStart, System.nanoTime () - started);
+	}
+
+	private void scan (StompLimits limits) {
 		int current = start;
+		limits.checkFrameSize (len);
 
 		int end = findChar ('\n', current);
 		if ( end < 0 ) { failMessage ("Frame does not start with a command."); }
+		limits.checkHeaderLength (end - current);
 
-		command = extract (current, end);
+		int commandEnd = end > current && data[end - 1] == '\r' ? end - 1 : end;
+		type = StompCommand.match (data, current, commandEnd);
+		command = type == null ? extract (current, end) : type.name ();
+		escaped = type == null || type.escapesHeaders ();
 		current = end + 1;
 
-		if ( current == data.length ) { return; }
+		if ( current == this.end ) {
+			bodyStart = bodyEnd = current;
+			return;
+		}
 
 		while ( true ) {
-			if ( nextCharsAre (current, '\n') || nextCharsAre (current, '\r', '\n') ) {
-				break;
-			}
+			if ( current >= this.end ) { failMessage ("Frame headers not terminated by an empty line."); }
+			if ( nextCharsAre (current, '\n') ) { current += 1; break; }
+			if ( nextCharsAre (current, '\r', '\n') ) { current += 2; break; }
 
-			int sep = findChar (':', current);
-			if ( sep < 0 ) { failMessage ("Expected a header but no colon found."); }
+			long scanned = StompScanner.scanLine (data, current, this.end);
+			int line = StompScanner.newline (scanned);
+			if ( line < 0 ) { failMessage ("header not terminated with a newline"); }
 
-			int line = findChar ('\n', sep);
-			if ( line < 0 || (sep == current && line > current) ) {
-				failMessage ("header not terminated with a newline");
-			}
+			limits.checkHeaderLength (line - current);
+			limits.checkHeaders (headerCount + 1);
 
-			String header = extract (current, sep);
-			String value = extract (sep + 1, line);
+			int sep = StompScanner.separator (scanned);
+			if ( sep < 0 ) { failMessage ("Expected a header but no colon found."); }
+			if ( sep == current ) { failMessage ("Header without a name."); }
 
-			if ( ! headers.containsKey (header) ) {
-				headers.put (decode (header), decode (value));
-			}
+			addHeader (current, sep, line > sep + 1 && data[line - 1] == '\r' ? line - 1 : line);
 			current = line + 1;
 		}
 
-		end = headers.containsKey ("content-length") ?
-			current + 1 + Integer.parseInt (headers.get ("content-length").trim ()) :
-			findChar ('\0', current);
+		int length = indexOf (StompHeaders.CONTENT_LENGTH);
+		end = length >= 0 ? current + contentLength (length) : findChar ('\0', current);
 
-		if ( end > this.end ) {
-			throw new RuntimeException ("content length too large");
+		if ( end < 0 || end > this.end ) {
+			failMessage ("content length too large");
 		}
 
-		body = Arrays.copyOfRange (data, current + 1, end);
+		limits.checkBodySize (end - current);
+		bodyStart = current;
+		bodyEnd = end;
+	}
+
+	private int contentLength (int index) {
+		long length;
+		int from = offsets[3 * index + 1] + 1;
+		int to = offsets[3 * index + 2];
+		try { length = StompHeaderCodec.parseLong (data, from, to); }
+		catch (NumberFormatException e) { length = -1; failMessage ("invalid content-length"); }
+		if ( StompScanner.indexOf (data, from, to, (byte) '+') >= 0 ) { failMessage ("invalid content-length"); }
+
+		if ( length < 0 ) { failMessage ("negative content-length"); }
+		if ( length > end - start ) { failMessage ("content length too large"); }
+		return (int) length;
+	}
+
+	private void addHeader (int key, int sep, int end) {
+		if ( 3 * headerCount == offsets.length ) {
+			offsets = Arrays.copyOf (offsets, offsets.length * 2);
+		}
+
+		int index = 3 * headerCount++;
+		offsets[index] = key;
+		offsets[index + 1] = sep;
+		offsets[index + 2] = end;
+	}
+
+	private int indexOf (String key) {
+		for ( int i = 0; i < headerCount; i++ ) {
+			if ( keyEquals (i, key) ) { return i; }
+		}
+		return -1;
+	}
+
+	private boolean keyEquals (int index, String key) {
+		return StompHeaderCodec.matches (data, offsets[3 * index], offsets[3 * index + 1], key, escaped);
+	}
+
+	private String key (int index) {
+		String known = StompHeaders.wellKnown (data, offsets[3 * index], offsets[3 * index + 1]);
+		if ( known != null ) { return known; }
+		return StompHeaderCodec.decode (data, offsets[3 * index], offsets[3 * index + 1], escaped);
+	}
+
+	private String value (int index) {
+		int from = offsets[3 * index + 1] + 1;
+		return StompHeaderCodec.decode (data, from, offsets[3 * index + 2], escaped);
 	}
 
 	public byte [] raw () {
-		return Arrays.copyOfRange (data, start, end);
+		access ();
+		StompMetrics metrics = StompFrame.metrics;
+		if ( metrics != StompMetrics.NONE ) { metrics.copied (command, len); }
+		if ( spilled == null ) { return Arrays.copyOfRange (data, start, end); }
+
+		byte [] raw = new byte [Math.addExact (len, bodyLength () + 1)];
+		System.arraycopy (data, start, raw, 0, len);
+		spilled.map ().get (raw, len, bodyLength ());
+		return raw;
+	}
+
+	public ByteBuffer rawBuffer () {
+		access ();
+		if ( spilled != null ) { throw new IllegalStateException ("The body of this frame is spilled to disk"); }
+		return ByteBuffer.wrap (data, start, len).slice ().asReadOnlyBuffer ();
+	}
+
+	private void access () {
+		if ( released ) { throw new IllegalStateException ("Stomp frame used after it was released"); }
 	}
 
 	private boolean nextCharsAre (int index, char ... chars) {
 		for ( int i = 0; i < chars.length; i++ ) {
-			if ( data[i + index] != chars[i] ) { return false; }
+			if ( i + index >= end || data[i + index] != chars[i] ) { return false; }
 		}
 		return true;
 	}
 
 	private int findChar (char c, int start) {
-		for ( int i = start; i < end; i++ ) {
-			if ( data[i] == c ) { return i; }
-		}
-
-		return -1;
+		return StompScanner.indexOf (data, start, end, (byte) c);
 	}
 
 	private String extract (int start, int end) {
 		if ( end > 0 && data[end - 1 ] == '\r' ) { end = end - 1; }
-		return new String (data, start, end - start);
+		return new String (data, start, end - start, StandardCharsets.UTF_8);
 	}
 
 	private void failMessage (String reason) {
-		throw new RuntimeException ("Illegal Stomp Message" + (reason.isEmpty () ? "" : ": ") + reason);
-	}
-
-	private static String encode (String value) {
-		return value
-			.replaceAll ("\\\\", "\\\\\\\\")
-			.replaceAll ("\\r", "\\\\r")
-			.replaceAll ("\\n", "\\\\n")
-			.replaceAll (":", "\\\\c")
-			;
-	}
-
-	private static String decode (String value) {
-		return value
-			.replaceAll ("\\\\r", "\r")
-			.replaceAll ("\\\\n", "\n")
-			.replaceAll ("\\\\c", ":")
-			.replaceAll ("\\\\", "\\\\")
-			;
+		metrics.malformed (StompProtocolException.Reason.MALFORMED);
+		throw new StompProtocolException (reason);
 	}
 
 }
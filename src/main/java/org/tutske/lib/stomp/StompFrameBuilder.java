@@ -0,0 +1,126 @@
+package org.tutske.lib.stomp;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+
+public class StompFrameBuilder {
+
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate (0);
+
+	private final String command;
+	private final boolean escape;
+
+	private ByteBuffer target;
+	private int [] offsets = new int [3 * 4];
+	private int headers = 0;
+	private ByteBuffer body = EMPTY;
+	private boolean built = false;
+	private final long started;
+
+	StompFrameBuilder (String command) {
+		this (command, 256);
+	}
+
+	StompFrameBuilder (String command, int capacity) {
+		this.started = StompFrame.metrics () == StompMetrics.NONE ? 0 : System.nanoTime ();
+		this.command = command;
+		this.escape = StompHeaderCodec.escapes (command);
+		this.target = ByteBuffer.allocate (Math.max (capacity, StompHeaderCodec.encodedLength (command, false) + 2));
+
+		StompHeaderCodec.encode (command, false, target);
+		target.put ((byte) '\n');
+	}
+
+	public StompFrameBuilder header (String key, CharSequence value) {
+		int length = StompHeaderCodec.encodedLength (value, escape);
+		int sep = startHeader (key, length);
+		StompHeaderCodec.encode (value, escape, target);
+		return endHeader (sep);
+	}
+
+	public StompFrameBuilder header (String key, long value) {
+		int sep = startHeader (key, StompEncoder.digits (value));
+		StompEncoder.writeLong (value, target);
+		return endHeader (sep);
+	}
+
+	public StompFrameBuilder headers (Map<String, ?> headers) {
+		for ( Map.Entry<String, ?> entry : headers.entrySet () ) {
+			Object value = entry.getValue ();
+			int sep = startHeader (entry.getKey (), StompEncoder.valueLength (value, escape));
+			StompEncoder.writeValue (value, escape, target);
+			endHeader (sep);
+		}
+		return this;
+	}
+
+	public StompFrameBuilder body (byte [] body) {
+		return body (ByteBuffer.wrap (body));
+	}
+
+	public StompFrameBuilder body (ByteBuffer body) {
+		checkOpen ();
+		this.body = body.duplicate ();
+		return this;
+	}
+
+	public StompFrame build () {
+		checkOpen ();
+		built = true;
+
+		int length = body.remaining ();
+		ensureCapacity (length + 2);
+		target.put ((byte) '\n');
+		int bodyStart = target.position ();
+		target.put (body);
+		target.put ((byte) '\0');
+
+		StompMetrics metrics = StompFrame.metrics ();
+		if ( metrics != StompMetrics.NONE ) {
+			metrics.encoded (command, target.position (), headers, length, started == 0 ? 0 : System.nanoTime () - started);
+		}
+
+		return StompFrame.encoded (
+			target.array (), target.position (), command, offsets, headers, bodyStart, bodyStart + length
+		);
+	}
+
+	private int startHeader (String key, int valueLength) {
+		checkOpen ();
+		ensureCapacity (StompHeaderCodec.encodedLength (key, escape) + valueLength + 2);
+
+		if ( 3 * headers == offsets.length ) { offsets = Arrays.copyOf (offsets, offsets.length * 2); }
+		offsets[3 * headers] = target.position ();
+
+		StompHeaderCodec.encode (key, escape, target);
+		int sep = target.position ();
+		target.put ((byte) ':');
+		return sep;
+	}
+
+	private StompFrameBuilder endHeader (int sep) {
+		offsets[3 * headers + 1] = sep;
+		offsets[3 * headers + 2] = target.position ();
+		headers++;
+		target.put ((byte) '\n');
+		return this;
+	}
+
+	private void ensureCapacity (int required) {
+		if ( target.remaining () >= required ) { return; }
+
+		int size = target.capacity () * 2;
+		while ( size - target.position () < required ) { size *= 2; }
+
+		ByteBuffer grown = ByteBuffer.allocate (size);
+		grown.put (target.flip ());
+		target = grown;
+	}
+
+	private void checkOpen () {
+		if ( built ) { throw new IllegalStateException ("Frame was already built"); }
+	}
+
+}
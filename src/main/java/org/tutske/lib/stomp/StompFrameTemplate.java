@@ -0,0 +1,124 @@
+package org.tutske.lib.stomp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Map;
+
+
+public class StompFrameTemplate {
+
+	private final boolean escape;
+	private final ByteBuffer prefix;
+	private final ByteBuffer suffix;
+	private final byte [][] keys;
+
+	public static StompFrameTemplate of (String command, Map<String, ?> headers, byte [] body, String ... variable) {
+		return new StompFrameTemplate (command, headers, body, variable);
+	}
+
+	public static StompFrameTemplate message (Map<String, ?> headers, byte [] body) {
+		return of (Stomp.Commands.MESSAGE, headers, body, StompHeaders.SUBSCRIPTION, StompHeaders.MESSAGE_ID);
+	}
+
+	private StompFrameTemplate (String command, Map<String, ?> headers, byte [] body, String [] variable) {
+		for ( String key : variable ) {
+			if ( headers.containsKey (key) ) {
+				throw new IllegalArgumentException ("Header '" + key + "' is both static and variable");
+			}
+		}
+
+		this.escape = StompHeaderCodec.escapes (command);
+
+		int length = StompHeaderCodec.encodedLength (command, false) + 1;
+		for ( Map.Entry<String, ?> entry : headers.entrySet () ) {
+			length += StompHeaderCodec.encodedLength (entry.getKey (), escape) + 2;
+			length += StompEncoder.valueLength (entry.getValue (), escape);
+		}
+
+		ByteBuffer prefix = ByteBuffer.allocate (length);
+		StompHeaderCodec.encode (command, false, prefix);
+		prefix.put ((byte) '\n');
+		for ( Map.Entry<String, ?> entry : headers.entrySet () ) {
+			StompHeaderCodec.encode (entry.getKey (), escape, prefix);
+			prefix.put ((byte) ':');
+			StompEncoder.writeValue (entry.getValue (), escape, prefix);
+			prefix.put ((byte) '\n');
+		}
+		this.prefix = prefix.flip ().asReadOnlyBuffer ();
+
+		ByteBuffer suffix = ByteBuffer.allocate (body.length + 2);
+		suffix.put ((byte) '\n').put (body).put ((byte) '\0');
+		this.suffix = suffix.flip ().asReadOnlyBuffer ();
+
+		this.keys = new byte [variable.length][];
+		for ( int i = 0; i < variable.length; i++ ) {
+			ByteBuffer key = ByteBuffer.allocate (StompHeaderCodec.encodedLength (variable[i], escape) + 1);
+			StompHeaderCodec.encode (variable[i], escape, key);
+			keys[i] = key.put ((byte) ':').array ();
+		}
+	}
+
+	public int sharedLength () {
+		return prefix.remaining () + suffix.remaining ();
+	}
+
+	public int headersLength (Object ... values) {
+		checkValues (values);
+
+		int length = 0;
+		for ( int i = 0; i < keys.length; i++ ) {
+			length += keys[i].length + StompEncoder.valueLength (values[i], escape) + 1;
+		}
+		return length;
+	}
+
+	public int length (Object ... values) {
+		return sharedLength () + headersLength (values);
+	}
+
+	public void writeHeaders (ByteBuffer target, Object ... values) {
+		checkValues (values);
+		for ( int i = 0; i < keys.length; i++ ) {
+			target.put (keys[i]);
+			StompEncoder.writeValue (values[i], escape, target);
+			target.put ((byte) '\n');
+		}
+	}
+
+	public ByteBuffer headers (Object ... values) {
+		ByteBuffer target = ByteBuffer.allocate (headersLength (values));
+		writeHeaders (target, values);
+		return target.flip ();
+	}
+
+	public ByteBuffer [] buffers (ByteBuffer headers) {
+		return new ByteBuffer [] { prefix.duplicate (), headers, suffix.duplicate () };
+	}
+
+	public long write (GatheringByteChannel channel, Object ... values) throws IOException {
+		ByteBuffer [] buffers = buffers (headers (values));
+		long written = 0;
+		while ( buffers[2].hasRemaining () ) { written += channel.write (buffers); }
+		return written;
+	}
+
+	public void encode (ByteBuffer target, Object ... values) {
+		target.put (prefix.duplicate ());
+		writeHeaders (target, values);
+		target.put (suffix.duplicate ());
+	}
+
+	public StompFrame frame (Object ... values) {
+		ByteBuffer target = ByteBuffer.allocate (length (values));
+		encode (target, values);
+		return StompFrame.fromRaw (target.array ());
+	}
+
+	private void checkValues (Object [] values) {
+		if ( values.length != keys.length ) {
+			throw new IllegalArgumentException ("Expected " + keys.length + " header values, got " + values.length);
+		}
+	}
+
+}
@@ -0,0 +1,11 @@
+package org.tutske.lib.stomp;
+
+
+public interface StompHandler {
+
+	public default void onOpen (StompConnection connection) {}
+	public void onFrame (StompConnection connection, StompFrame frame);
+	public default void onWritable (StompConnection connection) {}
+	public default void onClose (StompConnection connection, Throwable cause) {}
+
+}
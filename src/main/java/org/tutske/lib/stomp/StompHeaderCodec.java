@@ -0,0 +1,213 @@
+package org.tutske.lib.stomp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+
+public class StompHeaderCodec {
+
+	private StompHeaderCodec () {}
+
+	public static boolean escapes (String command) {
+		StompCommand type = StompCommand.of (command);
+		return type == null || type.escapesHeaders ();
+	}
+
+	public static String escape (String value) {
+		int i = 0;
+		while ( i < value.length () && ! isEscaped (value.charAt (i)) ) { i++; }
+		if ( i == value.length () ) { return value; }
+
+		StringBuilder builder = new StringBuilder (value.length () + 8);
+		builder.append (value, 0, i);
+		for ( ; i < value.length (); i++ ) {
+			char c = value.charAt (i);
+			if ( isEscaped (c) ) { builder.append ('\\').append (escaped (c)); }
+			else { builder.append (c); }
+		}
+		return builder.toString ();
+	}
+
+	public static String unescape (String value) {
+		int i = value.indexOf ('\\');
+		if ( i < 0 ) { return value; }
+
+		StringBuilder builder = new StringBuilder (value.length ());
+		builder.append (value, 0, i);
+		for ( ; i < value.length (); i++ ) {
+			char c = value.charAt (i);
+			if ( c != '\\' ) { builder.append (c); continue; }
+			if ( ++i == value.length () || value.charAt (i) >= 0x80 ) { failEscape (); }
+			builder.append ((char) unescaped ((byte) value.charAt (i)));
+		}
+		return builder.toString ();
+	}
+
+	public static int encodedLength (CharSequence value, boolean escape) {
+		int length = 0;
+		for ( int i = 0; i < value.length (); i++ ) {
+			char c = value.charAt (i);
+			if ( c < 0x80 ) { length += escape && isEscaped (c) ? 2 : 1; }
+			else if ( c < 0x800 ) { length += 2; }
+			else if ( isSurrogatePair (value, i) ) { length += 4; i++; }
+			else if ( Character.isSurrogate (c) ) { length += 1; }
+			else { length += 3; }
+		}
+		return length;
+	}
+
+	public static void encode (CharSequence value, boolean escape, ByteBuffer target) {
+		for ( int i = 0; i < value.length (); i++ ) {
+			char c = value.charAt (i);
+			if ( c < 0x80 ) {
+				if ( escape && isEscaped (c) ) {
+					target.put ((byte) '\\');
+					target.put ((byte) escaped (c));
+				} else if ( c == '\n' || c == '\r' ) {
+					throw new IllegalArgumentException ("Line breaks can not be represented in unescaped headers");
+				} else {
+					target.put ((byte) c);
+				}
+			} else if ( c < 0x800 ) {
+				target.put ((byte) (0xC0 | (c >> 6)));
+				target.put ((byte) (0x80 | (c & 0x3F)));
+			} else if ( isSurrogatePair (value, i) ) {
+				int code = Character.toCodePoint (c, value.charAt (++i));
+				target.put ((byte) (0xF0 | (code >> 18)));
+				target.put ((byte) (0x80 | ((code >> 12) & 0x3F)));
+				target.put ((byte) (0x80 | ((code >> 6) & 0x3F)));
+				target.put ((byte) (0x80 | (code & 0x3F)));
+			} else if ( Character.isSurrogate (c) ) {
+				target.put ((byte) '?');
+			} else {
+				target.put ((byte) (0xE0 | (c >> 12)));
+				target.put ((byte) (0x80 | ((c >> 6) & 0x3F)));
+				target.put ((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+
+	public static String decode (byte [] data, int from, int to, boolean unescape) {
+		int escape = unescape ? indexOf (data, from, to, (byte) '\\') : -1;
+		if ( escape < 0 ) { return new String (data, from, to - from, StandardCharsets.UTF_8); }
+
+		byte [] decoded = new byte [to - from];
+		int length = escape - from;
+		System.arraycopy (data, from, decoded, 0, length);
+
+		for ( int i = escape; i < to; i++ ) {
+			byte b = data[i];
+			if ( b == '\\' ) {
+				if ( ++i == to ) { failEscape (); }
+				b = unescaped (data[i]);
+			}
+			decoded[length++] = b;
+		}
+
+		return new String (decoded, 0, length, StandardCharsets.UTF_8);
+	}
+
+	public static boolean matches (byte [] data, int from, int to, String value, boolean unescape) {
+		if ( to - from < value.length () ) { return false; }
+
+		int index = 0;
+		for ( int i = from; i < to; i++, index++ ) {
+			byte b = data[i];
+			if ( b < 0 ) { return decode (data, from, to, unescape).equals (value); }
+			if ( unescape && b == '\\' ) {
+				if ( ++i == to ) { failEscape (); }
+				b = unescaped (data[i]);
+			}
+			if ( index == value.length () || value.charAt (index) != b ) { return false; }
+		}
+
+		return index == value.length ();
+	}
+
+	public static long parseLong (byte [] data, int from, int to) {
+		while ( from < to && data[from] == ' ' ) { from++; }
+		while ( to > from && data[to - 1] == ' ' ) { to--; }
+		if ( from == to ) { throw new NumberFormatException ("Empty numeric header value"); }
+
+		boolean negative = data[from] == '-';
+		if ( negative || data[from] == '+' ) { from++; }
+		if ( from == to ) { throw invalidNumber (data, from, to); }
+
+		long value = 0;
+		for ( int i = from; i < to; i++ ) {
+			int digit = data[i] - '0';
+			if ( digit < 0 || digit > 9 ) { throw invalidNumber (data, from, to); }
+			if ( value < (Long.MIN_VALUE + digit) / 10 ) { throw invalidNumber (data, from, to); }
+			value = value * 10 - digit;
+		}
+
+		if ( ! negative && value == Long.MIN_VALUE ) { throw invalidNumber (data, from, to); }
+		return negative ? value : -value;
+	}
+
+	public static boolean parseBoolean (byte [] data, int from, int to) {
+		while ( from < to && data[from] == ' ' ) { from++; }
+		while ( to > from && data[to - 1] == ' ' ) { to--; }
+
+		if ( equalsIgnoreCase (data, from, to, "true") ) { return true; }
+		if ( equalsIgnoreCase (data, from, to, "false") ) { return false; }
+		throw new IllegalArgumentException (
+			"Not a boolean header value: " + new String (data, from, to - from, StandardCharsets.UTF_8)
+		);
+	}
+
+	private static boolean equalsIgnoreCase (byte [] data, int from, int to, String value) {
+		if ( to - from != value.length () ) { return false; }
+		for ( int i = 0; i < value.length (); i++ ) {
+			if ( (data[from + i] | 0x20) != value.charAt (i) ) { return false; }
+		}
+		return true;
+	}
+
+	private static NumberFormatException invalidNumber (byte [] data, int from, int to) {
+		return new NumberFormatException (
+			"Not a numeric header value: " + new String (data, from, to - from, StandardCharsets.UTF_8)
+		);
+	}
+
+	private static boolean isEscaped (char c) {
+		return c == '\\' || c == '\r' || c == '\n' || c == ':';
+	}
+
+	private static char escaped (char c) {
+		switch ( c ) {
+			case '\r': return 'r';
+			case '\n': return 'n';
+			case ':': return 'c';
+			default: return '\\';
+		}
+	}
+
+	private static byte unescaped (byte b) {
+		switch ( b ) {
+			case 'r': return '\r';
+			case 'n': return '\n';
+			case 'c': return ':';
+			case '\\': return '\\';
+			default: return failEscape ();
+		}
+	}
+
+	private static boolean isSurrogatePair (CharSequence value, int index) {
+		return Character.isHighSurrogate (value.charAt (index))
+			&& index + 1 < value.length ()
+			&& Character.isLowSurrogate (value.charAt (index + 1));
+	}
+
+	private static int indexOf (byte [] data, int from, int to, byte b) {
+		for ( int i = from; i < to; i++ ) {
+			if ( data[i] == b ) { return i; }
+		}
+		return -1;
+	}
+
+	private static byte failEscape () {
+		throw new StompProtocolException ("undefined escape sequence in header");
+	}
+
+}
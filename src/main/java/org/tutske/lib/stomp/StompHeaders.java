@@ -0,0 +1,76 @@
+package org.tutske.lib.stomp;
+
+import java.nio.charset.StandardCharsets;
+
+
+public class StompHeaders {
+
+	public static final String ACCEPT_VERSION = "accept-version";
+	public static final String ACK = "ack";
+	public static final String CONTENT_LENGTH = "content-length";
+	public static final String CONTENT_TYPE = "content-type";
+	public static final String DESTINATION = "destination";
+	public static final String HEART_BEAT = "heart-beat";
+	public static final String HOST = "host";
+	public static final String ID = "id";
+	public static final String LOGIN = "login";
+	public static final String MESSAGE = "message";
+	public static final String MESSAGE_ID = "message-id";
+	public static final String PASSCODE = "passcode";
+	public static final String RECEIPT = "receipt";
+	public static final String RECEIPT_ID = "receipt-id";
+	public static final String SERVER = "server";
+	public static final String SESSION = "session";
+	public static final String SUBSCRIPTION = "subscription";
+	public static final String TRANSACTION = "transaction";
+	public static final String VERSION = "version";
+
+	private static final String [] KNOWN = {
+		ACCEPT_VERSION, ACK, CONTENT_LENGTH, CONTENT_TYPE, DESTINATION, HEART_BEAT, HOST, ID, LOGIN,
+		MESSAGE, MESSAGE_ID, PASSCODE, RECEIPT, RECEIPT_ID, SERVER, SESSION, SUBSCRIPTION, TRANSACTION,
+		VERSION
+	};
+
+	private static final String [][] NAMES = new String [16][];
+	private static final byte [][][] BYTES = new byte [16][][];
+
+	static {
+		for ( String name : KNOWN ) {
+			int length = name.length ();
+			int size = NAMES[length] == null ? 0 : NAMES[length].length;
+
+			String [] names = new String [size + 1];
+			byte [][] bytes = new byte [size + 1][];
+			if ( size > 0 ) {
+				System.arraycopy (NAMES[length], 0, names, 0, size);
+				System.arraycopy (BYTES[length], 0, bytes, 0, size);
+			}
+
+			names[size] = name;
+			bytes[size] = name.getBytes (StandardCharsets.US_ASCII);
+			NAMES[length] = names;
+			BYTES[length] = bytes;
+		}
+	}
+
+	private StompHeaders () {}
+
+	public static String wellKnown (byte [] data, int from, int to) {
+		int length = to - from;
+		if ( length <= 0 || length >= NAMES.length || NAMES[length] == null ) { return null; }
+
+		byte [][] candidates = BYTES[length];
+		for ( int i = 0; i < candidates.length; i++ ) {
+			if ( candidates[i][0] == data[from] && matches (candidates[i], data, from) ) { return NAMES[length][i]; }
+		}
+		return null;
+	}
+
+	private static boolean matches (byte [] name, byte [] data, int from) {
+		for ( int i = name.length - 1; i > 0; i-- ) {
+			if ( name[i] != data[from + i] ) { return false; }
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,82 @@
+package org.tutske.lib.stomp;
+
+import java.util.Objects;
+
+
+public class StompHeartBeat {
+
+	public static final StompHeartBeat NONE = new StompHeartBeat (0, 0);
+
+	private final long send;
+	private final long receive;
+
+	public static StompHeartBeat of (long send, long receive) {
+		return send == 0 && receive == 0 ? NONE : new StompHeartBeat (send, receive);
+	}
+
+	public static StompHeartBeat of (StompFrame frame) {
+		return parse (frame.header (StompHeaders.HEART_BEAT));
+	}
+
+	public static StompHeartBeat parse (String header) {
+		if ( header == null ) { return NONE; }
+
+		int comma = header.indexOf (',');
+		if ( comma < 0 ) { throw new IllegalArgumentException ("Invalid heart-beat header: " + header); }
+
+		try {
+			return of (
+				Long.parseLong (header.substring (0, comma).trim ()),
+				Long.parseLong (header.substring (comma + 1).trim ())
+			);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException ("Invalid heart-beat header: " + header, e);
+		}
+	}
+
+	private StompHeartBeat (long send, long receive) {
+		if ( send < 0 || receive < 0 ) {
+			throw new IllegalArgumentException ("Heart-beat intervals can not be negative: " + send + "," + receive);
+		}
+		this.send = send;
+		this.receive = receive;
+	}
+
+	public long send () {
+		return send;
+	}
+
+	public long receive () {
+		return receive;
+	}
+
+	public boolean isEnabled () {
+		return send > 0 || receive > 0;
+	}
+
+	public StompHeartBeat negotiate (StompHeartBeat remote) {
+		return of (
+			send == 0 || remote.receive == 0 ? 0 : Math.max (send, remote.receive),
+			receive == 0 || remote.send == 0 ? 0 : Math.max (receive, remote.send)
+		);
+	}
+
+	@Override
+	public boolean equals (Object o) {
+		if ( this == o ) { return true; }
+		if ( ! (o instanceof StompHeartBeat) ) { return false; }
+		StompHeartBeat other = (StompHeartBeat) o;
+		return send == other.send && receive == other.receive;
+	}
+
+	@Override
+	public int hashCode () {
+		return Objects.hash (send, receive);
+	}
+
+	@Override
+	public String toString () {
+		return send + "," + receive;
+	}
+
+}
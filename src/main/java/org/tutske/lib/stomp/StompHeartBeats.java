@@ -0,0 +1,73 @@
+package org.tutske.lib.stomp;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+public class StompHeartBeats implements Closeable {
+
+	private static final ByteBuffer PING = ByteBuffer.wrap (new byte [] { '\n' }).asReadOnlyBuffer ();
+
+	private final StompTimerWheel wheel;
+	private final boolean owned;
+	private final double tolerance;
+
+	public StompHeartBeats () {
+		this (new StompTimerWheel ().start (), true, 2.0);
+	}
+
+	public StompHeartBeats (StompTimerWheel wheel, double tolerance) {
+		this (wheel, false, tolerance);
+	}
+
+	private StompHeartBeats (StompTimerWheel wheel, boolean owned, double tolerance) {
+		if ( tolerance < 1.0 ) { throw new IllegalArgumentException ("Tolerance must be at least 1, got " + tolerance); }
+		this.wheel = wheel;
+		this.owned = owned;
+		this.tolerance = tolerance;
+	}
+
+	public void register (StompConnection connection, StompHeartBeat negotiated) {
+		if ( negotiated.send () > 0 ) {
+			long interval = TimeUnit.MILLISECONDS.toNanos (negotiated.send ());
+			wheel.schedule (() -> checkWrite (connection, interval), interval, TimeUnit.NANOSECONDS);
+		}
+		if ( negotiated.receive () > 0 ) {
+			long interval = (long) (TimeUnit.MILLISECONDS.toNanos (negotiated.receive ()) * tolerance);
+			wheel.schedule (() -> checkRead (connection, interval), interval, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	@Override
+	public void close () {
+		if ( owned ) { wheel.close (); }
+	}
+
+	private void checkWrite (StompConnection connection, long interval) {
+		if ( ! connection.isOpen () ) { return; }
+
+		long idle = System.nanoTime () - connection.lastWrite ();
+		if ( idle >= interval ) {
+			try { connection.send (PING.duplicate ()); }
+			catch (IllegalStateException closed) { return; }
+			idle = 0;
+		}
+		wheel.schedule (() -> checkWrite (connection, interval), interval - idle, TimeUnit.NANOSECONDS);
+	}
+
+	private void checkRead (StompConnection connection, long interval) {
+		if ( ! connection.isOpen () ) { return; }
+
+		long idle = System.nanoTime () - connection.lastRead ();
+		if ( idle >= interval ) {
+			connection.abort (new TimeoutException (
+				"No data received for " + TimeUnit.NANOSECONDS.toMillis (idle) + "ms"
+			));
+			return;
+		}
+		wheel.schedule (() -> checkRead (connection, interval), interval - idle, TimeUnit.NANOSECONDS);
+	}
+
+}
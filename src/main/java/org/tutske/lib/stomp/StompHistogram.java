@@ -0,0 +1,95 @@
+package org.tutske.lib.stomp;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+public class StompHistogram {
+
+	@FunctionalInterface
+	public static interface BucketConsumer {
+		public void accept (long lower, long upper, long count);
+	}
+
+	private static final int LINEAR = 16;
+	private static final int SUB_BITS = 3;
+	private static final int SUBS = 1 << SUB_BITS;
+	private static final int BUCKETS = LINEAR + (63 - 4) * SUBS;
+
+	private final AtomicLongArray counts = new AtomicLongArray (BUCKETS);
+	private final LongAdder count = new LongAdder ();
+	private final LongAdder sum = new LongAdder ();
+	private final LongAccumulator max = new LongAccumulator (Math::max, 0);
+
+	public void record (long value) {
+		value = Math.max (0, value);
+		counts.incrementAndGet (index (value));
+		count.increment ();
+		sum.add (value);
+		max.accumulate (value);
+	}
+
+	public long count () {
+		return count.sum ();
+	}
+
+	public long sum () {
+		return sum.sum ();
+	}
+
+	public long max () {
+		return max.get ();
+	}
+
+	public double mean () {
+		long count = this.count.sum ();
+		return count == 0 ? 0 : (double) sum.sum () / count;
+	}
+
+	public long percentile (double percentile) {
+		if ( percentile < 0 || percentile > 100 ) {
+			throw new IllegalArgumentException ("Percentile should be between 0 and 100, got " + percentile);
+		}
+
+		long total = 0;
+		for ( int i = 0; i < BUCKETS; i++ ) { total += counts.get (i); }
+		if ( total == 0 ) { return 0; }
+
+		long rank = Math.max (1, (long) Math.ceil (total * percentile / 100));
+		long seen = 0;
+		for ( int i = 0; i < BUCKETS; i++ ) {
+			seen += counts.get (i);
+			if ( seen >= rank ) { return Math.min (upper (i), max ()); }
+		}
+		return max ();
+	}
+
+	public void forEach (BucketConsumer consumer) {
+		for ( int i = 0; i < BUCKETS; i++ ) {
+			long count = counts.get (i);
+			if ( count > 0 ) { consumer.accept (lower (i), upper (i), count); }
+		}
+	}
+
+	static int index (long value) {
+		if ( value < LINEAR ) { return (int) value; }
+		int exponent = 63 - Long.numberOfLeadingZeros (value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUBS - 1);
+		return LINEAR + (exponent - 4) * SUBS + sub;
+	}
+
+	static long lower (int index) {
+		if ( index < LINEAR ) { return index; }
+		int exponent = (index - LINEAR) / SUBS + 4;
+		int sub = (index - LINEAR) % SUBS;
+		return (long) (SUBS + sub) << (exponent - SUB_BITS);
+	}
+
+	static long upper (int index) {
+		if ( index < LINEAR ) { return index; }
+		int exponent = (index - LINEAR) / SUBS + 4;
+		return lower (index) + (1L << (exponent - SUB_BITS)) - 1;
+	}
+
+}
@@ -0,0 +1,267 @@
+package org.tutske.lib.stomp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+
+public class StompJournal implements Closeable {
+
+	private static final String SUFFIX = ".journal";
+	private static final int RECORD_HEADER = 8;
+
+	private final Path directory;
+	private final int segmentSize;
+	private final int syncEvery;
+	private final List<Segment> segments = new ArrayList<> ();
+	private final CRC32C crc = new CRC32C ();
+
+	private int unsynced = 0;
+	private boolean closed = false;
+
+	public static StompJournal open (Path directory) {
+		return open (directory, 64 * 1024 * 1024, 64);
+	}
+
+	public static StompJournal open (Path directory, int segmentSize, int syncEvery) {
+		try {
+			Files.createDirectories (directory);
+			return new StompJournal (directory, segmentSize, syncEvery);
+		} catch (IOException e) {
+			throw new UncheckedIOException ("Could not open the stomp journal in " + directory, e);
+		}
+	}
+
+	private StompJournal (Path directory, int segmentSize, int syncEvery) throws IOException {
+		if ( segmentSize <= RECORD_HEADER ) { throw new IllegalArgumentException ("Segment size too small: " + segmentSize); }
+
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.syncEvery = Math.max (1, syncEvery);
+
+		List<Path> files;
+		try ( Stream<Path> listing = Files.list (directory) ) {
+			files = listing
+				.filter (path -> path.getFileName ().toString ().endsWith (SUFFIX))
+				.sorted ()
+				.collect (Collectors.toList ());
+		}
+
+		long next = 0;
+		for ( int i = 0; i < files.size (); i++ ) {
+			Path path = files.get (i);
+			String name = path.getFileName ().toString ();
+			long base = Long.parseLong (name.substring (0, name.length () - SUFFIX.length ()));
+			if ( base != next && i > 0 ) {
+				throw new IOException ("Journal segment " + name + " does not follow offset " + next);
+			}
+
+			Segment segment = new Segment (path, base, (int) Math.max (segmentSize, Files.size (path)));
+			segment.recover (crc, i == files.size () - 1);
+			segments.add (segment);
+			next = base + segment.count;
+		}
+
+		if ( segments.isEmpty () ) { roll (0); }
+	}
+
+	public synchronized long append (StompFrame frame) {
+		checkOpen ();
+
+		long length = frame.isSpilled () ? frame.length () + frame.spilledBody ().length () + 1 : frame.length ();
+		if ( length > segmentSize - RECORD_HEADER ) {
+			throw new IllegalArgumentException ("Frame of " + length + " bytes does not fit a journal segment");
+		}
+
+		Segment segment = last ();
+		if ( segment.position + RECORD_HEADER + length > segment.capacity ) {
+			segment = roll (segment.base + segment.count);
+		}
+
+		ByteBuffer target = segment.map.duplicate ();
+		int start = segment.position;
+		target.position (start + RECORD_HEADER);
+		target.put (frame.array (), frame.offset (), frame.length ());
+		if ( frame.isSpilled () ) {
+			target.put (frame.spilledBody ().map ());
+			target.put ((byte) '\0');
+		}
+
+		int end = (int) (start + RECORD_HEADER + length);
+		if ( end + RECORD_HEADER <= segment.capacity ) { segment.map.putLong (end, 0); }
+
+		ByteBuffer written = segment.map.duplicate ();
+		written.position (start + RECORD_HEADER).limit ((int) (start + RECORD_HEADER + length));
+		crc.reset ();
+		crc.update (written);
+
+		segment.map.putInt (start + 4, (int) crc.getValue ());
+		segment.map.putInt (start, (int) length);
+		segment.add (start, end);
+
+		if ( ++unsynced >= syncEvery ) { sync (); }
+		return segment.base + segment.count - 1;
+	}
+
+	public synchronized void sync () {
+		checkOpen ();
+		if ( unsynced == 0 ) { return; }
+		last ().map.force ();
+		unsynced = 0;
+	}
+
+	public synchronized long firstOffset () {
+		return segments.get (0).base;
+	}
+
+	public synchronized long nextOffset () {
+		Segment last = last ();
+		return last.base + last.count;
+	}
+
+	public synchronized int segments () {
+		return segments.size ();
+	}
+
+	public synchronized ByteBuffer slice (long offset) {
+		checkOpen ();
+		Segment segment = find (offset);
+		int position = segment.positions[(int) (offset - segment.base)];
+		int length = segment.map.getInt (position);
+
+		ByteBuffer slice = segment.map.duplicate ();
+		slice.position (position + RECORD_HEADER).limit (position + RECORD_HEADER + length);
+		return slice.slice ().asReadOnlyBuffer ();
+	}
+
+	public StompFrame read (long offset) {
+		ByteBuffer slice = slice (offset);
+		byte [] data = new byte [slice.remaining ()];
+		slice.get (data);
+		return StompFrame.fromRaw (data, 0, data.length, StompLimits.NONE);
+	}
+
+	public void replay (long from, Consumer<StompFrame> consumer) {
+		for ( long offset = from, next = nextOffset (); offset < next; offset++ ) {
+			consumer.accept (read (offset));
+		}
+	}
+
+	public void replay (long from, MutableStompFrame reuse, Consumer<StompFrame> consumer) {
+		for ( long offset = from, next = nextOffset (); offset < next; offset++ ) {
+			consumer.accept (reuse.reset (slice (offset)));
+		}
+	}
+
+	@Override
+	public synchronized void close () {
+		if ( closed ) { return; }
+		unsynced = Math.max (unsynced, 1);
+		sync ();
+		closed = true;
+
+		for ( Segment segment : segments ) {
+			try { segment.channel.close (); }
+			catch (IOException e) { throw new UncheckedIOException ("Could not close journal segment", e); }
+		}
+	}
+
+	private Segment roll (long base) {
+		if ( ! segments.isEmpty () ) {
+			last ().map.force ();
+			unsynced = 0;
+		}
+
+		Path path = directory.resolve (String.format ("%020d%s", base, SUFFIX));
+		try {
+			Segment segment = new Segment (path, base, segmentSize);
+			segments.add (segment);
+			return segment;
+		} catch (IOException e) {
+			throw new UncheckedIOException ("Could not create journal segment " + path, e);
+		}
+	}
+
+	private Segment find (long offset) {
+		int low = 0;
+		int high = segments.size () - 1;
+		while ( low < high ) {
+			int middle = (low + high + 1) >>> 1;
+			if ( segments.get (middle).base <= offset ) { low = middle; }
+			else { high = middle - 1; }
+		}
+
+		Segment segment = segments.get (low);
+		if ( offset < segment.base || offset >= segment.base + segment.count ) {
+			throw new IndexOutOfBoundsException ("No frame at journal offset " + offset);
+		}
+		return segment;
+	}
+
+	private Segment last () {
+		return segments.get (segments.size () - 1);
+	}
+
+	private void checkOpen () {
+		if ( closed ) { throw new IllegalStateException ("Journal is closed"); }
+	}
+
+	private static class Segment {
+		private final long base;
+		private final int capacity;
+		private final FileChannel channel;
+		private final MappedByteBuffer map;
+		private int [] positions = new int [64];
+		private int count = 0;
+		private int position = 0;
+
+		private Segment (Path path, long base, int capacity) throws IOException {
+			this.base = base;
+			this.capacity = capacity;
+			this.channel = FileChannel.open (path,
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+			);
+			this.map = channel.map (FileChannel.MapMode.READ_WRITE, 0, capacity);
+		}
+
+		private void add (int start, int end) {
+			if ( count == positions.length ) { positions = Arrays.copyOf (positions, count * 2); }
+			positions[count++] = start;
+			position = end;
+		}
+
+		private void recover (CRC32C crc, boolean tail) {
+			while ( position + RECORD_HEADER <= capacity ) {
+				int length = map.getInt (position);
+				if ( length <= 0 || position + RECORD_HEADER + length > capacity ) { break; }
+
+				ByteBuffer record = map.duplicate ();
+				record.position (position + RECORD_HEADER).limit (position + RECORD_HEADER + length);
+				crc.reset ();
+				crc.update (record);
+				if ( (int) crc.getValue () != map.getInt (position + 4) ) { break; }
+
+				add (position, position + RECORD_HEADER + length);
+			}
+
+			if ( tail && position + RECORD_HEADER <= capacity && map.getLong (position) != 0 ) {
+				map.putLong (position, 0);
+				map.force ();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,76 @@
+package org.tutske.lib.stomp;
+
+import org.tutske.lib.stomp.StompProtocolException.Reason;
+
+
+public class StompLimits {
+
+	public static final StompLimits NONE = new StompLimits (Long.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+	public static final StompLimits DEFAULT = new StompLimits (Long.MAX_VALUE, 1024, 64 * 1024, Long.MAX_VALUE);
+
+	private final long maxFrameSize;
+	private final int maxHeaders;
+	private final int maxHeaderLength;
+	private final long maxBodySize;
+
+	public StompLimits (long maxFrameSize, int maxHeaders, int maxHeaderLength, long maxBodySize) {
+		if ( maxFrameSize < 0 || maxHeaders < 0 || maxHeaderLength < 0 || maxBodySize < 0 ) {
+			throw new IllegalArgumentException ("Limits can not be negative");
+		}
+		this.maxFrameSize = maxFrameSize;
+		this.maxHeaders = maxHeaders;
+		this.maxHeaderLength = maxHeaderLength;
+		this.maxBodySize = maxBodySize;
+	}
+
+	public long maxFrameSize () { return maxFrameSize; }
+	public int maxHeaders () { return maxHeaders; }
+	public int maxHeaderLength () { return maxHeaderLength; }
+	public long maxBodySize () { return maxBodySize; }
+
+	public StompLimits maxFrameSize (long size) {
+		return new StompLimits (size, maxHeaders, maxHeaderLength, maxBodySize);
+	}
+
+	public StompLimits maxHeaders (int count) {
+		return new StompLimits (maxFrameSize, count, maxHeaderLength, maxBodySize);
+	}
+
+	public StompLimits maxHeaderLength (int length) {
+		return new StompLimits (maxFrameSize, maxHeaders, length, maxBodySize);
+	}
+
+	public StompLimits maxBodySize (long size) {
+		return new StompLimits (maxFrameSize, maxHeaders, maxHeaderLength, size);
+	}
+
+	void checkFrameSize (long size) {
+		if ( size > maxFrameSize ) {
+			fail (Reason.FRAME_TOO_LARGE, "frame larger than " + maxFrameSize + " bytes");
+		}
+	}
+
+	void checkHeaders (int count) {
+		if ( count > maxHeaders ) {
+			fail (Reason.TOO_MANY_HEADERS, "more than " + maxHeaders + " headers");
+		}
+	}
+
+	void checkHeaderLength (long length) {
+		if ( length > maxHeaderLength ) {
+			fail (Reason.HEADER_TOO_LONG, "header line longer than " + maxHeaderLength + " bytes");
+		}
+	}
+
+	void checkBodySize (long size) {
+		if ( size > maxBodySize ) {
+			fail (Reason.BODY_TOO_LARGE, "body larger than " + maxBodySize + " bytes");
+		}
+	}
+
+	private static void fail (Reason reason, String message) {
+		StompFrame.metrics ().malformed (reason);
+		throw new StompProtocolException (reason, message);
+	}
+
+}
@@ -0,0 +1,13 @@
+package org.tutske.lib.stomp;
+
+
+public interface StompMetrics {
+
+	public static final StompMetrics NONE = new StompMetrics () {};
+
+	public default void parsed (String command, int bytes, int headers, long body, long nanos) {}
+	public default void encoded (String command, int bytes, int headers, long body, long nanos) {}
+	public default void copied (String command, int bytes) {}
+	public default void malformed (StompProtocolException.Reason reason) {}
+
+}
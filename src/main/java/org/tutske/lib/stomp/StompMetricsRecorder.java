@@ -0,0 +1,89 @@
+package org.tutske.lib.stomp;
+
+import org.tutske.lib.stomp.StompProtocolException.Reason;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+
+public class StompMetricsRecorder implements StompMetrics {
+
+	public static class CommandStats {
+		private final LongAdder parsed = new LongAdder ();
+		private final LongAdder encoded = new LongAdder ();
+		private final LongAdder bytesIn = new LongAdder ();
+		private final LongAdder bytesOut = new LongAdder ();
+		private final LongAdder copied = new LongAdder ();
+		private final StompHistogram headers = new StompHistogram ();
+		private final StompHistogram bodySizes = new StompHistogram ();
+		private final StompHistogram parseLatency = new StompHistogram ();
+		private final StompHistogram encodeLatency = new StompHistogram ();
+
+		public long parsed () { return parsed.sum (); }
+		public long encoded () { return encoded.sum (); }
+		public long bytesIn () { return bytesIn.sum (); }
+		public long bytesOut () { return bytesOut.sum (); }
+		public long bytesCopied () { return copied.sum (); }
+		public StompHistogram headers () { return headers; }
+		public StompHistogram bodySizes () { return bodySizes; }
+		public StompHistogram parseLatency () { return parseLatency; }
+		public StompHistogram encodeLatency () { return encodeLatency; }
+	}
+
+	private final CommandStats [] known = new CommandStats [StompCommand.values ().length];
+	private final CommandStats other = new CommandStats ();
+	private final LongAdder [] malformed = new LongAdder [Reason.values ().length];
+
+	public StompMetricsRecorder () {
+		for ( int i = 0; i < known.length; i++ ) { known[i] = new CommandStats (); }
+		for ( int i = 0; i < malformed.length; i++ ) { malformed[i] = new LongAdder (); }
+	}
+
+	@Override
+	public void parsed (String command, int bytes, int headers, long body, long nanos) {
+		CommandStats stats = stats (command);
+		stats.parsed.increment ();
+		stats.bytesIn.add (bytes + body);
+		stats.headers.record (headers);
+		stats.bodySizes.record (body);
+		stats.parseLatency.record (nanos);
+	}
+
+	@Override
+	public void encoded (String command, int bytes, int headers, long body, long nanos) {
+		CommandStats stats = stats (command);
+		stats.encoded.increment ();
+		stats.bytesOut.add (bytes);
+		stats.headers.record (headers);
+		stats.bodySizes.record (body);
+		stats.encodeLatency.record (nanos);
+	}
+
+	@Override
+	public void copied (String command, int bytes) {
+		stats (command).copied.add (bytes);
+	}
+
+	@Override
+	public void malformed (Reason reason) {
+		malformed[reason.ordinal ()].increment ();
+	}
+
+	/* Pings and unknown commands share one entry and failures are counted by reason, so hostile input can not grow the map. */
+	public CommandStats stats (String command) {
+		StompCommand type = StompCommand.of (command);
+		return type == null ? other : known[type.ordinal ()];
+	}
+
+	public Map<Reason, Long> malformed () {
+		Map<Reason, Long> counts = new EnumMap<> (Reason.class);
+		for ( Reason reason : Reason.values () ) {
+			long count = malformed[reason.ordinal ()].sum ();
+			if ( count > 0 ) { counts.put (reason, count); }
+		}
+		return Collections.unmodifiableMap (counts);
+	}
+
+}
@@ -0,0 +1,28 @@
+package org.tutske.lib.stomp;
+
+
+public class StompProtocolException extends RuntimeException {
+
+	public enum Reason {
+		MALFORMED, FRAME_TOO_LARGE, TOO_MANY_HEADERS, HEADER_TOO_LONG, BODY_TOO_LARGE,
+		UNKNOWN_TRANSACTION, DUPLICATE_TRANSACTION, TOO_MANY_TRANSACTIONS, TRANSACTION_TOO_LARGE
+	}
+
+	private static final long serialVersionUID = 1L;
+
+	private final Reason reason;
+
+	public StompProtocolException (Reason reason, String message) {
+		super ("Illegal Stomp Message" + (message.isEmpty () ? "" : ": ") + message);
+		this.reason = reason;
+	}
+
+	public StompProtocolException (String message) {
+		this (Reason.MALFORMED, message);
+	}
+
+	public Reason reason () {
+		return reason;
+	}
+
+}
@@ -0,0 +1,261 @@
+package org.tutske.lib.stomp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+
+public class StompRouter<T> {
+
+	private static final byte [] STAR = { '*' };
+	private static final byte [] GLOBSTAR = { '*', '*' };
+	private static final Node [] NO_CHILDREN = {};
+	private static final Object [] NO_SUBSCRIBERS = {};
+
+	private final Node root = new Node (new byte [] {}, 0, 0);
+
+	public synchronized void subscribe (String pattern, T subscriber) {
+		Node node = root;
+		for ( byte [] segment : segments (pattern) ) { node = node.child (segment); }
+
+		Object [] current = node.subscribers;
+		Object [] updated = Arrays.copyOf (current, current.length + 1);
+		updated[current.length] = subscriber;
+		node.subscribers = updated;
+	}
+
+	public synchronized boolean unsubscribe (String pattern, T subscriber) {
+		List<Node> path = new ArrayList<> ();
+		Node node = root;
+		for ( byte [] segment : segments (pattern) ) {
+			path.add (node);
+			node = node.existing (segment);
+			if ( node == null ) { return false; }
+		}
+
+		Object [] current = node.subscribers;
+		int index = 0;
+		while ( index < current.length && ! current[index].equals (subscriber) ) { index++; }
+		if ( index == current.length ) { return false; }
+
+		Object [] updated = current.length == 1 ? NO_SUBSCRIBERS : new Object [current.length - 1];
+		System.arraycopy (current, 0, updated, 0, index);
+		System.arraycopy (current, index + 1, updated, index, current.length - index - 1);
+		node.subscribers = updated;
+
+		for ( int i = path.size () - 1; i >= 0 && node.isEmpty (); i-- ) {
+			path.get (i).remove (node);
+			node = path.get (i);
+		}
+		return true;
+	}
+
+	public boolean isEmpty () {
+		return root.isEmpty ();
+	}
+
+	public void route (StompFrame frame, Consumer<? super T> consumer) {
+		long range = frame.valueRange (StompHeaders.DESTINATION);
+		if ( range < 0 ) { return; }
+
+		byte [] data = frame.array ();
+		int from = (int) (range >>> 32);
+		int to = (int) range;
+
+		if ( frame.escaped () && StompScanner.indexOf (data, from, to, (byte) '\\') >= 0 ) {
+			route (frame.header (StompHeaders.DESTINATION), consumer);
+		} else {
+			route (data, from, to, consumer);
+		}
+	}
+
+	public void route (String destination, Consumer<? super T> consumer) {
+		byte [] bytes = destination.getBytes (StandardCharsets.UTF_8);
+		route (bytes, 0, bytes.length, consumer);
+	}
+
+	public void route (byte [] data, int from, int to, Consumer<? super T> consumer) {
+		Matches matches = new Matches ();
+		visit (root, data, from, to, matches);
+		matches.emit (consumer);
+	}
+
+	public List<T> subscribers (String destination) {
+		List<T> subscribers = new ArrayList<> ();
+		route (destination, subscribers::add);
+		return subscribers;
+	}
+
+	private void visit (Node node, byte [] data, int pos, int to, Matches matches) {
+		if ( pos > to ) {
+			matches.add (node.subscribers);
+			Node globstar = node.globstar;
+			if ( globstar != null ) { matches.add (globstar.subscribers); }
+			return;
+		}
+
+		int end = StompScanner.indexOf (data, pos, to, (byte) '/');
+		if ( end < 0 ) { end = to; }
+
+		Node child = node.find (data, pos, end);
+		if ( child != null ) { visit (child, data, end + 1, to, matches); }
+
+		Node star = node.star;
+		if ( star != null ) { visit (star, data, end + 1, to, matches); }
+
+		Node globstar = node.globstar;
+		if ( globstar != null ) {
+			for ( int p = pos; p <= to; ) {
+				visit (globstar, data, p, to, matches);
+				int next = StompScanner.indexOf (data, p, to, (byte) '/');
+				p = next < 0 ? to + 1 : next + 1;
+			}
+			visit (globstar, data, to + 1, to, matches);
+		}
+	}
+
+	/*
+	 * A destination can match several patterns of one subscriber (like a/x against both
+	 * a/* and a/**), so subscribers are only emitted the first time any of them matches.
+	 */
+	private final class Matches {
+		private Object [] first = NO_SUBSCRIBERS;
+		private List<Object []> more;
+
+		private void add (Object [] subscribers) {
+			if ( subscribers.length == 0 || subscribers == first ) { return; }
+			if ( first.length == 0 ) { first = subscribers; return; }
+			if ( more == null ) { more = new ArrayList<> (); }
+			for ( Object [] existing : more ) { if ( existing == subscribers ) { return; } }
+			more.add (subscribers);
+		}
+
+		private void emit (Consumer<? super T> consumer) {
+			emit (first, consumer, null);
+			if ( more == null ) { return; }
+
+			Set<Object> seen = new HashSet<> (Arrays.asList (first));
+			for ( Object [] subscribers : more ) {
+				emit (subscribers, consumer, seen);
+				seen.addAll (Arrays.asList (subscribers));
+			}
+		}
+
+		@SuppressWarnings ("unchecked")
+		private void emit (Object [] subscribers, Consumer<? super T> consumer, Set<Object> seen) {
+			for ( Object subscriber : subscribers ) {
+				if ( seen == null || ! seen.contains (subscriber) ) { consumer.accept ((T) subscriber); }
+			}
+		}
+	}
+
+	private static List<byte []> segments (String pattern) {
+		byte [] bytes = pattern.getBytes (StandardCharsets.UTF_8);
+		List<byte []> segments = new ArrayList<> ();
+		int start = 0;
+		for ( int i = 0; i <= bytes.length; i++ ) {
+			if ( i == bytes.length || bytes[i] == '/' ) {
+				segments.add (Arrays.copyOfRange (bytes, start, i));
+				start = i + 1;
+			}
+		}
+		return segments;
+	}
+
+	private static int hash (byte [] data, int from, int to) {
+		int hash = 1;
+		for ( int i = from; i < to; i++ ) { hash = 31 * hash + data[i]; }
+		return hash ^ (hash >>> 16);
+	}
+
+	private static final class Node {
+		private final byte [] name;
+		private final int hash;
+
+		private volatile Node [] table = NO_CHILDREN;
+		private volatile Node star;
+		private volatile Node globstar;
+		private volatile Object [] subscribers = NO_SUBSCRIBERS;
+		private int children = 0; /* only touched under the router lock, isEmpty reads the table */
+
+		private Node (byte [] data, int from, int to) {
+			this.name = Arrays.copyOfRange (data, from, to);
+			this.hash = hash (data, from, to);
+		}
+
+		private boolean isEmpty () {
+			return table.length == 0 && star == null && globstar == null && subscribers.length == 0;
+		}
+
+		private Node find (byte [] data, int from, int to) {
+			Node [] table = this.table;
+			if ( table.length == 0 ) { return null; }
+
+			int hash = hash (data, from, to);
+			int mask = table.length - 1;
+			for ( int i = hash & mask; ; i = (i + 1) & mask ) {
+				Node node = table[i];
+				if ( node == null ) { return null; }
+				if ( node.hash == hash && Arrays.equals (node.name, 0, node.name.length, data, from, to) ) {
+					return node;
+				}
+			}
+		}
+
+		private Node existing (byte [] segment) {
+			if ( Arrays.equals (segment, STAR) ) { return star; }
+			if ( Arrays.equals (segment, GLOBSTAR) ) { return globstar; }
+			return find (segment, 0, segment.length);
+		}
+
+		private Node child (byte [] segment) {
+			Node existing = existing (segment);
+			if ( existing != null ) { return existing; }
+
+			Node node = new Node (segment, 0, segment.length);
+			if ( Arrays.equals (segment, STAR) ) { star = node; }
+			else if ( Arrays.equals (segment, GLOBSTAR) ) { globstar = node; }
+			else { rebuild (node, null); }
+			return node;
+		}
+
+		private void remove (Node child) {
+			if ( child == star ) { star = null; }
+			else if ( child == globstar ) { globstar = null; }
+			else { rebuild (null, child); }
+		}
+
+		private void rebuild (Node added, Node removed) {
+			int count = children + (added != null ? 1 : 0) - (removed != null ? 1 : 0);
+			if ( count == 0 ) {
+				table = NO_CHILDREN;
+				children = 0;
+				return;
+			}
+
+			int size = 4;
+			while ( size < 2 * count ) { size <<= 1; }
+
+			Node [] updated = new Node [size];
+			for ( Node node : table ) {
+				if ( node != null && node != removed ) { insert (updated, node); }
+			}
+			if ( added != null ) { insert (updated, added); }
+
+			table = updated;
+			children = count;
+		}
+
+		private static void insert (Node [] table, Node node) {
+			int mask = table.length - 1;
+			int i = node.hash & mask;
+			while ( table[i] != null ) { i = (i + 1) & mask; }
+			table[i] = node;
+		}
+	}
+
+}
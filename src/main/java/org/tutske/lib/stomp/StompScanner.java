@@ -0,0 +1,78 @@
+package org.tutske.lib.stomp;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+
+class StompScanner {
+
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle (long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGHS = 0x8080808080808080L;
+	private static final long NEWLINES = ONES * '\n';
+	private static final long COLONS = ONES * ':';
+
+	private StompScanner () {}
+
+	static int indexOf (byte [] data, int from, int to, byte b) {
+		long pattern = ONES * (b & 0xFF);
+		int i = from;
+
+		for ( ; i + 8 <= to; i += 8 ) {
+			long found = zeros ((long) LONGS.get (data, i) ^ pattern);
+			if ( found != 0 ) { return i + (Long.numberOfTrailingZeros (found) >>> 3); }
+		}
+
+		for ( ; i < to; i++ ) {
+			if ( data[i] == b ) { return i; }
+		}
+
+		return -1;
+	}
+
+	static long scanLine (byte [] data, int from, int to) {
+		int sep = -1;
+		int i = from;
+
+		for ( ; i + 8 <= to; i += 8 ) {
+			long word = (long) LONGS.get (data, i);
+			long newline = zeros (word ^ NEWLINES);
+			long colon = sep < 0 ? zeros (word ^ COLONS) : 0;
+
+			if ( colon != 0 ) {
+				int index = i + (Long.numberOfTrailingZeros (colon) >>> 3);
+				if ( newline == 0 || index < i + (Long.numberOfTrailingZeros (newline) >>> 3) ) { sep = index; }
+			}
+			if ( newline != 0 ) {
+				return line (sep, i + (Long.numberOfTrailingZeros (newline) >>> 3));
+			}
+		}
+
+		for ( ; i < to; i++ ) {
+			if ( data[i] == '\n' ) { return line (sep, i); }
+			if ( sep < 0 && data[i] == ':' ) { sep = i; }
+		}
+
+		return line (sep, -1);
+	}
+
+	static int separator (long line) {
+		return (int) (line >> 32);
+	}
+
+	static int newline (long line) {
+		return (int) line;
+	}
+
+	private static long line (int sep, int newline) {
+		return ((long) sep << 32) | (newline & 0xFFFFFFFFL);
+	}
+
+	/* Only the lowest set bit is exact, higher bits may be false positives caused by borrows. */
+	private static long zeros (long word) {
+		return (word - ONES) & ~word & HIGHS;
+	}
+
+}
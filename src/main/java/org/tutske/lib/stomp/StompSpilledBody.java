@@ -0,0 +1,123 @@
+package org.tutske.lib.stomp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+public class StompSpilledBody implements Closeable {
+
+	private final FileChannel channel;
+	private long length = 0;
+	private MappedByteBuffer mapped;
+
+	static StompSpilledBody create (Path directory) {
+		try {
+			Path path = directory == null
+				? Files.createTempFile ("stomp-body-", ".tmp")
+				: Files.createTempFile (directory, "stomp-body-", ".tmp");
+			FileChannel channel = FileChannel.open (path,
+				StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE
+			);
+			return new StompSpilledBody (channel);
+		} catch (IOException e) {
+			throw new UncheckedIOException ("Could not create a file to spill the stomp body to", e);
+		}
+	}
+
+	private StompSpilledBody (FileChannel channel) {
+		this.channel = channel;
+	}
+
+	void write (byte [] data, int from, int len) {
+		write (ByteBuffer.wrap (data, from, len));
+	}
+
+	void write (ByteBuffer buffer) {
+		try {
+			while ( buffer.hasRemaining () ) { length += channel.write (buffer, length); }
+		} catch (IOException e) {
+			throw new UncheckedIOException ("Could not spill the stomp body", e);
+		}
+	}
+
+	long transferFrom (ReadableByteChannel source, long count) throws IOException {
+		long transferred = channel.transferFrom (source, length, count);
+		length += transferred;
+		return transferred;
+	}
+
+	public long length () {
+		return length;
+	}
+
+	public FileChannel channel () {
+		return channel;
+	}
+
+	public ByteBuffer map () {
+		if ( length > Integer.MAX_VALUE ) {
+			throw new IllegalStateException ("Body of " + length + " bytes is too large to map at once");
+		}
+
+		try {
+			if ( mapped == null ) { mapped = channel.map (FileChannel.MapMode.READ_ONLY, 0, length); }
+			return mapped.duplicate ();
+		} catch (IOException e) {
+			throw new UncheckedIOException ("Could not map the spilled stomp body", e);
+		}
+	}
+
+	public InputStream inputStream () {
+		return new InputStream () {
+			private long position = 0;
+
+			@Override public int read () throws IOException {
+				byte [] single = new byte [1];
+				return read (single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+			}
+
+			@Override public int read (byte [] target, int offset, int len) throws IOException {
+				if ( position >= length ) { return -1; }
+				int max = (int) Math.min (len, length - position);
+				int read = channel.read (ByteBuffer.wrap (target, offset, max), position);
+				if ( read > 0 ) { position += read; }
+				return read;
+			}
+
+			@Override public long skip (long n) {
+				long skipped = Math.max (0, Math.min (n, length - position));
+				position += skipped;
+				return skipped;
+			}
+
+			@Override public int available () {
+				return (int) Math.min (Integer.MAX_VALUE, length - position);
+			}
+		};
+	}
+
+	public long transferTo (WritableByteChannel target) throws IOException {
+		long position = 0;
+		while ( position < length ) {
+			position += channel.transferTo (position, length - position, target);
+		}
+		return position;
+	}
+
+	@Override
+	public void close () throws IOException {
+		mapped = null;
+		channel.close ();
+	}
+
+}
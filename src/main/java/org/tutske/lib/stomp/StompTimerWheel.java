@@ -0,0 +1,173 @@
+package org.tutske.lib.stomp;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+
+public class StompTimerWheel implements Closeable {
+
+	public static class Timeout {
+		private final Runnable task;
+		private final long deadline;
+		private long rounds;
+		private Timeout next;
+		private volatile boolean cancelled = false;
+
+		private Timeout (Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		public long deadline () {
+			return deadline;
+		}
+
+		public boolean isCancelled () {
+			return cancelled;
+		}
+
+		public void cancel () {
+			cancelled = true;
+		}
+	}
+
+	private final long tick;
+	private final Timeout [] buckets;
+	private final int mask;
+	private final LongSupplier clock;
+	private final long origin;
+	private final Queue<Timeout> added = new ConcurrentLinkedQueue<> ();
+
+	private long ticks = 0;
+	private volatile Thread thread;
+
+	public StompTimerWheel () {
+		this (10, TimeUnit.MILLISECONDS, 512);
+	}
+
+	public StompTimerWheel (long tick, TimeUnit unit, int size) {
+		this (tick, unit, size, System::nanoTime);
+	}
+
+	StompTimerWheel (long tick, TimeUnit unit, int size, LongSupplier clock) {
+		if ( tick <= 0 ) { throw new IllegalArgumentException ("Tick duration must be positive"); }
+		if ( size <= 0 || Integer.bitCount (size) != 1 ) {
+			throw new IllegalArgumentException ("Wheel size must be a power of two, got " + size);
+		}
+
+		this.tick = unit.toNanos (tick);
+		this.buckets = new Timeout [size];
+		this.mask = size - 1;
+		this.clock = clock;
+		this.origin = clock.getAsLong ();
+	}
+
+	public StompTimerWheel start () {
+		return start (runnable -> {
+			Thread thread = new Thread (runnable, "stomp-timer-wheel");
+			thread.setDaemon (true);
+			return thread;
+		});
+	}
+
+	public synchronized StompTimerWheel start (ThreadFactory factory) {
+		if ( thread != null ) { throw new IllegalStateException ("Timer wheel already started"); }
+		thread = factory.newThread (this::loop);
+		thread.start ();
+		return this;
+	}
+
+	public Timeout schedule (Runnable task, long delay, TimeUnit unit) {
+		Timeout timeout = new Timeout (task, clock.getAsLong () + unit.toNanos (Math.max (0, delay)));
+		added.add (timeout);
+		return timeout;
+	}
+
+	public long now () {
+		return clock.getAsLong ();
+	}
+
+	public void advance () {
+		long target = (clock.getAsLong () - origin) / tick;
+		while ( ticks <= target ) {
+			transfer ();
+			expire (ticks & mask);
+			ticks++;
+		}
+	}
+
+	@Override
+	public void close () {
+		Thread current = thread;
+		thread = null;
+		if ( current == null ) { return; }
+
+		LockSupport.unpark (current);
+		if ( current == Thread.currentThread () ) { return; }
+
+		try { current.join (); }
+		catch (InterruptedException e) { Thread.currentThread ().interrupt (); }
+	}
+
+	private void loop () {
+		Thread self = Thread.currentThread ();
+		while ( thread == self ) {
+			advance ();
+			long next = origin + ticks * tick - clock.getAsLong ();
+			if ( next > 0 ) { LockSupport.parkNanos (this, next); }
+		}
+	}
+
+	private void transfer () {
+		Timeout timeout;
+		while ( (timeout = added.poll ()) != null ) {
+			if ( timeout.cancelled ) { continue; }
+
+			long delta = timeout.deadline - origin;
+			long due = Math.max (ticks, (delta + tick - 1) / tick);
+			timeout.rounds = (due - ticks) / buckets.length;
+
+			int bucket = (int) (due & mask);
+			timeout.next = buckets[bucket];
+			buckets[bucket] = timeout;
+		}
+	}
+
+	private void expire (long bucket) {
+		int index = (int) bucket;
+		Timeout previous = null;
+		Timeout timeout = buckets[index];
+
+		while ( timeout != null ) {
+			Timeout next = timeout.next;
+			boolean remove = timeout.cancelled || timeout.rounds == 0;
+
+			if ( remove ) {
+				if ( previous == null ) { buckets[index] = next; }
+				else { previous.next = next; }
+				timeout.next = null;
+				if ( ! timeout.cancelled ) { run (timeout); }
+			} else {
+				timeout.rounds--;
+				previous = timeout;
+			}
+
+			timeout = next;
+		}
+	}
+
+	private void run (Timeout timeout) {
+		try {
+			timeout.task.run ();
+		} catch (RuntimeException e) {
+			Thread current = Thread.currentThread ();
+			current.getUncaughtExceptionHandler ().uncaughtException (current, e);
+		}
+	}
+
+}
@@ -0,0 +1,196 @@
+package org.tutske.lib.stomp;
+
+import org.tutske.lib.stomp.StompProtocolException.Reason;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+
+public class StompTransactions {
+
+	private static final int INITIAL_HEAP = 4 * 1024;
+	private static final int MAX_HEAP = 256 * 1024;
+	private static final int CHUNK = 1024 * 1024;
+	private static final int MAX_FREE_CHUNKS = 4;
+
+	private final Map<String, Transaction> open = new HashMap<> ();
+	private final ArrayDeque<ByteBuffer> free = new ArrayDeque<> ();
+	private final int maxOpen;
+	private final long maxBytes;
+
+	public StompTransactions () {
+		this (16, 64L * 1024 * 1024);
+	}
+
+	public StompTransactions (int maxOpen, long maxBytes) {
+		if ( maxOpen <= 0 || maxBytes <= 0 ) {
+			throw new IllegalArgumentException ("Transaction limits should be positive");
+		}
+		this.maxOpen = maxOpen;
+		this.maxBytes = maxBytes;
+	}
+
+	public boolean handle (StompFrame frame, Consumer<StompFrame> release) {
+		StompCommand command = frame.commandType ();
+
+		if ( command == StompCommand.BEGIN ) { begin (transaction (frame)); }
+		else if ( command == StompCommand.COMMIT ) { commit (transaction (frame), release); }
+		else if ( command == StompCommand.ABORT ) { abort (transaction (frame)); }
+		else if ( frame.hasHeader (StompHeaders.TRANSACTION) ) { stage (frame.header (StompHeaders.TRANSACTION), frame); }
+		else { return false; }
+
+		return true;
+	}
+
+	public void begin (String id) {
+		if ( open.containsKey (id) ) {
+			fail (Reason.DUPLICATE_TRANSACTION, "transaction " + id + " already started");
+		}
+		if ( open.size () >= maxOpen ) {
+			fail (Reason.TOO_MANY_TRANSACTIONS, "more than " + maxOpen + " open transactions");
+		}
+		open.put (id, new Transaction ());
+	}
+
+	public void stage (String id, StompFrame frame) {
+		get (id).append (id, frame);
+	}
+
+	public int commit (String id, Consumer<StompFrame> release) {
+		Transaction transaction = get (id);
+		open.remove (id);
+		try { return transaction.release (release); }
+		finally { recycle (transaction); }
+	}
+
+	public int abort (String id) {
+		Transaction transaction = get (id);
+		open.remove (id);
+		recycle (transaction);
+		return transaction.records;
+	}
+
+	public void abortAll () {
+		for ( Transaction transaction : open.values () ) { recycle (transaction); }
+		open.clear ();
+	}
+
+	public int open () {
+		return open.size ();
+	}
+
+	public boolean isOpen (String id) {
+		return open.containsKey (id);
+	}
+
+	public int frames (String id) {
+		return get (id).records;
+	}
+
+	public long bytes (String id) {
+		return get (id).bytes;
+	}
+
+	private Transaction get (String id) {
+		Transaction transaction = open.get (id);
+		if ( transaction == null ) { fail (Reason.UNKNOWN_TRANSACTION, "no transaction " + id + " in progress"); }
+		return transaction;
+	}
+
+	private ByteBuffer chunk (int size) {
+		ByteBuffer chunk = free.peekFirst ();
+		if ( chunk != null && chunk.capacity () >= size ) { return free.pollFirst (); }
+		return ByteBuffer.allocateDirect (Math.max (CHUNK, size));
+	}
+
+	private void recycle (Transaction transaction) {
+		for ( int i = 1; i < transaction.chunks; i++ ) {
+			if ( free.size () == MAX_FREE_CHUNKS ) { break; }
+			ByteBuffer chunk = transaction.buffers[i];
+			chunk.clear ();
+			if ( chunk.capacity () == CHUNK ) { free.addLast (chunk); }
+		}
+	}
+
+	private static String transaction (StompFrame frame) {
+		String id = frame.header (StompHeaders.TRANSACTION);
+		if ( id == null ) { fail (Reason.MALFORMED, frame.command () + " without a transaction header"); }
+		return id;
+	}
+
+	private static void fail (Reason reason, String message) {
+		StompFrame.metrics ().malformed (reason);
+		throw new StompProtocolException (reason, message);
+	}
+
+	private class Transaction {
+		private ByteBuffer [] buffers = { ByteBuffer.allocate (INITIAL_HEAP) };
+		private int chunks = 1;
+		private int [] index = new int [3 * 16];
+		private int records = 0;
+		private long bytes = 0;
+
+		void append (String id, StompFrame frame) {
+			long size = frame.isSpilled () ? frame.length () + frame.spilledBody ().length () + 1 : frame.length ();
+			if ( bytes + size > maxBytes || size > Integer.MAX_VALUE ) {
+				fail (Reason.TRANSACTION_TOO_LARGE, "transaction " + id + " larger than " + maxBytes + " bytes");
+			}
+
+			int length = (int) size;
+			ByteBuffer target = room (length);
+			int start = target.position ();
+
+			target.put (frame.array (), frame.offset (), frame.length ());
+			if ( frame.isSpilled () ) {
+				target.put (frame.spilledBody ().map ());
+				target.put ((byte) '\0');
+			}
+
+			if ( 3 * records == index.length ) { index = Arrays.copyOf (index, index.length * 2); }
+			index[3 * records] = chunks - 1;
+			index[3 * records + 1] = start;
+			index[3 * records + 2] = length;
+			records++;
+			bytes += length;
+		}
+
+		int release (Consumer<StompFrame> release) {
+			for ( int i = 0; i < records; i++ ) {
+				ByteBuffer chunk = buffers[index[3 * i]];
+				int start = index[3 * i + 1];
+				int length = index[3 * i + 2];
+
+				if ( chunk.hasArray () ) {
+					release.accept (StompFrame.fromRaw (chunk.array (), chunk.arrayOffset () + start, length));
+				} else {
+					byte [] data = new byte [length];
+					chunk.duplicate ().position (start).get (data);
+					release.accept (StompFrame.fromRaw (data));
+				}
+			}
+			return records;
+		}
+
+		private ByteBuffer room (int length) {
+			ByteBuffer current = buffers[chunks - 1];
+			if ( current.remaining () >= length ) { return current; }
+
+			if ( chunks == 1 && current.position () + length <= MAX_HEAP ) {
+				int size = current.capacity ();
+				while ( size < current.position () + length ) { size <<= 1; }
+				ByteBuffer grown = ByteBuffer.allocate (Math.min (size, MAX_HEAP));
+				grown.put (current.flip ());
+				buffers[0] = grown;
+				return grown;
+			}
+
+			if ( chunks == buffers.length ) { buffers = Arrays.copyOf (buffers, chunks * 2); }
+			return buffers[chunks++] = chunk (length);
+		}
+	}
+
+}
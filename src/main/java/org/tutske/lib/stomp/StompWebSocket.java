@@ -0,0 +1,327 @@
+package org.tutske.lib.stomp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+
+public class StompWebSocket {
+
+	public static final int CONTINUATION = 0x0;
+	public static final int TEXT = 0x1;
+	public static final int BINARY = 0x2;
+	public static final int CLOSE = 0x8;
+	public static final int PING = 0x9;
+	public static final int PONG = 0xA;
+
+	private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+	private static final String [] PROTOCOLS = { "v12.stomp", "v11.stomp", "v10.stomp" };
+	private static final int MAX_REQUEST = 8 * 1024;
+	private static final int MAX_CONTROL = 125;
+
+	private static final int HANDSHAKE = 0;
+	private static final int HEADER = 1;
+	private static final int PAYLOAD = 2;
+	private static final int CONTROL = 3;
+	private static final int CLOSED = 4;
+
+	private final StompDecoder decoder;
+	private final StompBufferPool pool;
+	private final byte [] head = new byte [14];
+	private final byte [] control = new byte [MAX_CONTROL];
+
+	private byte [] request;
+	private int requestLength = 0;
+	private int state = HANDSHAKE;
+	private int headLength = 0;
+	private int opcode;
+	private boolean fin;
+	private boolean fragmented = false;
+	private int mask;
+	private int phase;
+	private long remaining;
+	private int controlLength;
+	private int outbound = TEXT;
+	private String protocol;
+
+	public StompWebSocket (StompDecoder decoder) {
+		this (decoder, StompBufferPool.DEFAULT);
+	}
+
+	public StompWebSocket (StompDecoder decoder, StompBufferPool pool) {
+		this.decoder = decoder;
+		this.pool = pool;
+	}
+
+	public StompWebSocket binary (boolean binary) {
+		this.outbound = binary ? BINARY : TEXT;
+		return this;
+	}
+
+	public boolean isOpen () {
+		return state != HANDSHAKE && state != CLOSED;
+	}
+
+	public boolean isClosed () {
+		return state == CLOSED;
+	}
+
+	public String protocol () {
+		return protocol;
+	}
+
+	public static String accept (String key) {
+		try {
+			MessageDigest sha1 = MessageDigest.getInstance ("SHA-1");
+			byte [] digest = sha1.digest ((key.trim () + GUID).getBytes (StandardCharsets.US_ASCII));
+			return Base64.getEncoder ().encodeToString (digest);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException ("SHA-1 is not available", e);
+		}
+	}
+
+	public static ByteBuffer header (int opcode, long length) {
+		int extra = length < 126 ? 0 : length <= 0xFFFF ? 2 : 8;
+		ByteBuffer header = ByteBuffer.allocate (2 + extra);
+		header.put ((byte) (0x80 | opcode));
+
+		if ( extra == 0 ) { header.put ((byte) length); }
+		else if ( extra == 2 ) { header.put ((byte) 126).putShort ((short) length); }
+		else { header.put ((byte) 127).putLong (length); }
+
+		return header.flip ();
+	}
+
+	public int opcode (StompFrame frame) {
+		if ( outbound == BINARY || frame.isSpilled () ) { return BINARY; }
+		if ( frame.bodyLength () == 0 ) { return TEXT; }
+
+		String type = frame.header (StompHeaders.CONTENT_TYPE);
+		if ( type == null ) { return BINARY; }
+		type = type.toLowerCase (Locale.ROOT);
+		boolean text = type.startsWith ("text/") || type.contains ("json") || type.contains ("xml");
+		return text ? TEXT : BINARY;
+	}
+
+	public ByteBuffer [] wrap (ByteBuffer ... payload) {
+		return wrap (outbound, payload);
+	}
+
+	public ByteBuffer [] wrap (int opcode, ByteBuffer ... payload) {
+		long length = 0;
+		for ( ByteBuffer buffer : payload ) { length += buffer.remaining (); }
+
+		ByteBuffer [] wrapped = new ByteBuffer [payload.length + 1];
+		wrapped[0] = header (opcode, length);
+		System.arraycopy (payload, 0, wrapped, 1, payload.length);
+		return wrapped;
+	}
+
+	public ByteBuffer close (int code) {
+		return control (CLOSE, ByteBuffer.allocate (2).putShort ((short) code).flip ());
+	}
+
+	public void decode (ByteBuffer chunk, Consumer<StompFrame> frames, Consumer<ByteBuffer> replies) {
+		while ( chunk.hasRemaining () ) {
+			switch ( state ) {
+				case HANDSHAKE: handshake (chunk, replies); break;
+				case HEADER: header (chunk, frames, replies); break;
+				case PAYLOAD: payload (chunk, frames); break;
+				case CONTROL: control (chunk, replies); break;
+				case CLOSED: chunk.position (chunk.limit ()); break;
+			}
+		}
+	}
+
+	public void reset () {
+		if ( request != null ) { pool.release (request); }
+		request = null;
+		state = CLOSED;
+	}
+
+	private void handshake (ByteBuffer chunk, Consumer<ByteBuffer> replies) {
+		if ( request == null ) { request = pool.acquire (1024); }
+
+		while ( chunk.hasRemaining () ) {
+			if ( requestLength == request.length ) {
+				if ( requestLength == MAX_REQUEST ) { reject (replies, "431 Request Header Fields Too Large"); return; }
+				byte [] grown = pool.acquire (requestLength * 2);
+				System.arraycopy (request, 0, grown, 0, requestLength);
+				pool.release (request);
+				request = grown;
+			}
+
+			request[requestLength++] = chunk.get ();
+			if ( requestLength >= 4 && request[requestLength - 1] == '\n' && request[requestLength - 2] == '\r'
+				&& request[requestLength - 3] == '\n' && request[requestLength - 4] == '\r' ) {
+				upgrade (replies);
+				return;
+			}
+		}
+	}
+
+	private void upgrade (Consumer<ByteBuffer> replies) {
+		String [] lines = new String (request, 0, requestLength - 4, StandardCharsets.ISO_8859_1).split ("\r\n");
+		pool.release (request);
+		request = null;
+
+		String key = null;
+		String version = null;
+		String upgrade = null;
+		String connection = null;
+		String protocols = null;
+
+		for ( int i = 1; i < lines.length; i++ ) {
+			int colon = lines[i].indexOf (':');
+			if ( colon < 0 ) { continue; }
+			String name = lines[i].substring (0, colon).trim ().toLowerCase (Locale.ROOT);
+			String value = lines[i].substring (colon + 1).trim ();
+			switch ( name ) {
+				case "sec-websocket-key": key = value; break;
+				case "sec-websocket-version": version = value; break;
+				case "upgrade": upgrade = value; break;
+				case "connection": connection = value; break;
+				case "sec-websocket-protocol": protocols = value; break;
+			}
+		}
+
+		if ( ! lines[0].startsWith ("GET ") || key == null || ! "websocket".equalsIgnoreCase (upgrade)
+			|| connection == null || ! connection.toLowerCase (Locale.ROOT).contains ("upgrade") ) {
+			reject (replies, "400 Bad Request");
+			return;
+		}
+		if ( ! "13".equals (version) ) {
+			reject (replies, "426 Upgrade Required\r\nSec-WebSocket-Version: 13");
+			return;
+		}
+
+		protocol = negotiate (protocols);
+		String response = "HTTP/1.1 101 Switching Protocols\r\n"
+			+ "Upgrade: websocket\r\n"
+			+ "Connection: Upgrade\r\n"
+			+ "Sec-WebSocket-Accept: " + accept (key) + "\r\n"
+			+ (protocol == null ? "" : "Sec-WebSocket-Protocol: " + protocol + "\r\n")
+			+ "\r\n";
+
+		replies.accept (ByteBuffer.wrap (response.getBytes (StandardCharsets.ISO_8859_1)));
+		state = HEADER;
+	}
+
+	private void reject (Consumer<ByteBuffer> replies, String status) {
+		String response = "HTTP/1.1 " + status + "\r\nConnection: close\r\nContent-Length: 0\r\n\r\n";
+		replies.accept (ByteBuffer.wrap (response.getBytes (StandardCharsets.ISO_8859_1)));
+		reset ();
+	}
+
+	private static String negotiate (String offered) {
+		if ( offered == null ) { return null; }
+		for ( String protocol : PROTOCOLS ) {
+			for ( String candidate : offered.split (",") ) {
+				if ( candidate.trim ().equalsIgnoreCase (protocol) ) { return protocol; }
+			}
+		}
+		return null;
+	}
+
+	private void header (ByteBuffer chunk, Consumer<StompFrame> frames, Consumer<ByteBuffer> replies) {
+		while ( chunk.hasRemaining () && headLength < 2 ) { head[headLength++] = chunk.get (); }
+		if ( headLength < 2 ) { return; }
+		if ( (head[0] & 0x70) != 0 ) { fail ("reserved websocket bits set without an extension"); }
+		if ( (head[1] & 0x80) == 0 ) { fail ("websocket frames from a client should be masked"); }
+
+		int size = head[1] & 0x7F;
+		int required = 2 + (size == 126 ? 2 : size == 127 ? 8 : 0) + 4;
+		while ( chunk.hasRemaining () && headLength < required ) { head[headLength++] = chunk.get (); }
+		if ( headLength < required ) { return; }
+
+		fin = (head[0] & 0x80) != 0;
+		opcode = head[0] & 0x0F;
+
+		ByteBuffer view = ByteBuffer.wrap (head, 2, required - 2);
+		remaining = size == 126 ? view.getShort () & 0xFFFF : size == 127 ? view.getLong () : size;
+		if ( remaining < 0 ) { fail ("websocket payload length out of range"); }
+		mask = view.getInt ();
+		phase = 0;
+		headLength = 0;
+
+		if ( opcode >= CLOSE ) {
+			if ( ! fin || remaining > MAX_CONTROL ) { fail ("fragmented or oversized websocket control frame"); }
+			controlLength = 0;
+			state = CONTROL;
+			if ( remaining == 0 ) { control (chunk, replies); }
+			return;
+		}
+
+		if ( opcode == CONTINUATION && ! fragmented ) { fail ("websocket continuation without a message"); }
+		if ( opcode != CONTINUATION && fragmented ) { fail ("new websocket message before the previous one finished"); }
+		if ( opcode != CONTINUATION && opcode != TEXT && opcode != BINARY ) { fail ("unknown websocket opcode " + opcode); }
+
+		fragmented = ! fin;
+		state = remaining == 0 ? HEADER : PAYLOAD;
+	}
+
+	private void payload (ByteBuffer chunk, Consumer<StompFrame> frames) {
+		int length = (int) Math.min (remaining, chunk.remaining ());
+		int start = chunk.position ();
+		int end = start + length;
+
+		unmask (chunk, start, end, mask, phase);
+		phase = (phase + length) & 3;
+		remaining -= length;
+		if ( remaining == 0 ) { state = HEADER; }
+
+		ByteBuffer payload = chunk.duplicate ();
+		payload.limit (end);
+		chunk.position (end);
+		decoder.decode (payload, frames);
+	}
+
+	private void control (ByteBuffer chunk, Consumer<ByteBuffer> replies) {
+		while ( chunk.hasRemaining () && controlLength < remaining ) { control[controlLength++] = chunk.get (); }
+		if ( controlLength < remaining ) { return; }
+
+		ByteBuffer payload = ByteBuffer.wrap (control, 0, controlLength);
+		unmask (payload, 0, controlLength, mask, 0);
+		state = HEADER;
+
+		if ( opcode == PING ) {
+			replies.accept (control (PONG, ByteBuffer.wrap (Arrays.copyOf (control, controlLength))));
+		} else if ( opcode == CLOSE ) {
+			replies.accept (control (CLOSE, ByteBuffer.wrap (Arrays.copyOf (control, Math.min (2, controlLength)))));
+			reset ();
+		} else if ( opcode != PONG ) {
+			fail ("unknown websocket opcode " + opcode);
+		}
+	}
+
+	private static ByteBuffer control (int opcode, ByteBuffer payload) {
+		ByteBuffer frame = ByteBuffer.allocate (2 + payload.remaining ());
+		frame.put ((byte) (0x80 | opcode)).put ((byte) payload.remaining ()).put (payload);
+		return frame.flip ();
+	}
+
+	static void unmask (ByteBuffer buffer, int from, int to, int mask, int phase) {
+		int rotated = Integer.rotateLeft (mask, 8 * phase);
+		long wide = ((long) rotated << 32) | (rotated & 0xFFFFFFFFL);
+		ByteBuffer view = buffer.duplicate ();
+		int i = from;
+
+		for ( ; i + 8 <= to; i += 8 ) {
+			view.putLong (i, view.getLong (i) ^ wide);
+		}
+		for ( int shift = 24; i < to; i++, shift = (shift - 8) & 31 ) {
+			view.put (i, (byte) (view.get (i) ^ (rotated >>> shift)));
+		}
+	}
+
+	private static void fail (String message) {
+		StompFrame.metrics ().malformed (StompProtocolException.Reason.MALFORMED);
+		throw new StompProtocolException (message);
+	}
+
+}
@@ -0,0 +1,171 @@
+package org.tutske.lib.stomp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+
+public class MutableStompFrameTest {
+
+	private final StompBufferPool pool = new StompBufferPool (64, 4096, 4, false);
+	private final StompBufferPool debug = new StompBufferPool (64, 4096, 4, true);
+
+	@Test
+	public void it_should_parse_the_frame_it_is_reset_to () {
+		MutableStompFrame frame = pool.frame ();
+		frame.reset (bytes ("SEND\ndestination:/queue/a\n\nfirst\0"), 0, 33);
+
+		assertThat (frame.command (), is ("SEND"));
+		assertThat (frame.header ("destination"), is ("/queue/a"));
+		assertThat (frame.getBody (), is ("first"));
+	}
+
+	@Test
+	public void it_should_forget_everything_about_the_previous_frame () {
+		MutableStompFrame frame = pool.frame ();
+		frame.reset (bytes ("SEND\ndestination:/queue/a\n\nfirst\0"), 0, 33);
+		frame.headers ();
+		frame.getByteBody ();
+
+		byte [] second = bytes ("MESSAGE\nid:1\n\nsecond\0");
+		frame.reset (second, 0, second.length);
+
+		assertThat (frame.command (), is ("MESSAGE"));
+		assertThat (frame.hasHeader ("destination"), is (false));
+		assertThat (frame.headers ().keySet (), contains ("id"));
+		assertThat (frame.getByteBody (), is (bytes ("second")));
+	}
+
+	@Test
+	public void it_should_copy_direct_buffers_into_pooled_arrays () {
+		byte [] raw = bytes ("SEND\n\nbody\0");
+		ByteBuffer direct = ByteBuffer.allocateDirect (raw.length);
+		direct.put (raw).flip ();
+
+		MutableStompFrame frame = pool.frame ().reset (direct);
+
+		assertThat (frame.getBody (), is ("body"));
+		assertThat (direct.remaining (), is (raw.length));
+		assertThat (frame.length (), is (raw.length));
+		assertThat (frame.array ().length, is (64));
+	}
+
+	@Test
+	public void it_should_copy_the_body_of_spilled_frames (@TempDir Path dir) throws Exception {
+		String body = "x".repeat (100);
+		StompDecoder decoder = new StompDecoder ().spillBodiesAbove (16, dir);
+		StompFrame original = decoder.decode (ByteBuffer.wrap (
+			("SEND\ndestination:/queue/a\ncontent-length:100\n\n" + body + "\0").getBytes ()
+		)).get (0);
+
+		MutableStompFrame frame = pool.frame ().copy (original);
+		original.spilledBody ().close ();
+
+		assertThat (frame.isSpilled (), is (false));
+		assertThat (frame.header ("destination"), is ("/queue/a"));
+		assertThat (frame.getBody (), is (body));
+	}
+
+	@Test
+	public void it_should_copy_other_frames () {
+		StompFrame original = Stomp.message (Stomp.headers ("destination", "/topic/a"), bytes ("body"));
+		MutableStompFrame frame = pool.frame ().copy (original);
+
+		assertThat (frame.array (), not (sameInstance (original.array ())));
+		assertThat (frame.header ("destination"), is ("/topic/a"));
+		assertThat (frame.getBody (), is ("body"));
+	}
+
+	@Test
+	public void it_should_return_owned_buffers_to_the_pool_on_release () {
+		MutableStompFrame frame = pool.frame ().copy (Stomp.send ());
+		byte [] buffer = frame.array ();
+		frame.release ();
+
+		assertThat (frame.isReleased (), is (true));
+		assertThat (pool.acquire (10), sameInstance (buffer));
+	}
+
+	@Test
+	public void it_should_detect_use_after_release_in_debug_mode () {
+		MutableStompFrame frame = debug.frame ().copy (Stomp.send ());
+		frame.release ();
+
+		assertThrows (IllegalStateException.class, frame::command);
+		assertThrows (IllegalStateException.class, () -> frame.header ("destination"));
+		assertThrows (IllegalStateException.class, frame::getBody);
+	}
+
+	@Test
+	public void it_should_detect_double_releases_in_debug_mode () {
+		MutableStompFrame frame = debug.frame ().copy (Stomp.send ());
+		frame.release ();
+
+		assertThrows (IllegalStateException.class, frame::release);
+	}
+
+	@Test
+	public void it_should_be_usable_again_after_a_reset_in_debug_mode () {
+		MutableStompFrame frame = debug.frame ().copy (Stomp.send ());
+		frame.release ();
+		frame.copy (Stomp.message ());
+
+		assertThat (frame.command (), is ("MESSAGE"));
+	}
+
+	@Test
+	public void it_should_recognise_pings () {
+		MutableStompFrame frame = pool.frame ().reset (new byte [] { '\n' }, 0, 1);
+		assertThat (frame.command (), is ("PING"));
+	}
+
+	@Test
+	public void it_should_decode_into_a_reusable_frame () {
+		StompDecoder decoder = new StompDecoder ();
+		MutableStompFrame frame = pool.frame ();
+		StringBuilder seen = new StringBuilder ();
+
+		decoder.decode (ByteBuffer.wrap (bytes ("SEND\n\nfirst\0\nSEND\n\nsecond\0")), frame, f -> {
+			assertThat (f, sameInstance (frame));
+			seen.append (f.command ()).append (':').append (f.getBody ()).append (' ');
+		});
+
+		assertThat (seen.toString (), is ("SEND:first PING: SEND:second "));
+	}
+
+	@Test
+	public void it_should_decode_frames_without_allocating_in_steady_state () {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean ();
+		long thread = Thread.currentThread ().getId ();
+
+		StompDecoder decoder = new StompDecoder ();
+		MutableStompFrame frame = pool.frame ();
+		ByteBuffer chunk = ByteBuffer.wrap (bytes ("SEND\ndestination:/queue/a\nid:12\ncontent-length:4\n\nbody\0\n"));
+		AtomicInteger count = new AtomicInteger ();
+		Consumer<StompFrame> consumer = f -> count.addAndGet (f.headerInt ("id", 0));
+
+		long allocated = Long.MAX_VALUE;
+		for ( int round = 0; round < 20 && allocated > 0; round++ ) {
+			long before = threads.getThreadAllocatedBytes (thread);
+			for ( int i = 0; i < 100_000; i++ ) { decoder.decode (chunk.rewind (), frame, consumer); }
+			allocated = Math.min (allocated, threads.getThreadAllocatedBytes (thread) - before);
+		}
+
+		assertThat (count.get () % 12, is (0));
+		assertThat (allocated, lessThan (1_000L));
+	}
+
+	private byte [] bytes (String value) {
+		return value.getBytes ();
+	}
+
+}
@@ -0,0 +1,195 @@
+package org.tutske.lib.stomp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class StompAckTrackerTest {
+
+	@Test
+	public void it_should_parse_ack_modes_from_the_subscribe_header () {
+		assertThat (StompAckTracker.Mode.of (null), is (StompAckTracker.Mode.AUTO));
+		assertThat (StompAckTracker.Mode.of ("client"), is (StompAckTracker.Mode.CLIENT));
+		assertThat (StompAckTracker.Mode.of ("client-individual"), is (StompAckTracker.Mode.CLIENT_INDIVIDUAL));
+		assertThrows (IllegalArgumentException.class, () -> StompAckTracker.Mode.of ("sometimes"));
+	}
+
+	@Test
+	public void it_should_not_keep_messages_around_in_auto_mode () {
+		StompAckTracker<String> tracker = new StompAckTracker<> (0, StompAckTracker.Mode.AUTO, 10);
+		long id = tracker.track ("first");
+
+		assertThat (tracker.pending (), is (0));
+		assertThat (tracker.credit (), is (10));
+		assertThat (tracker.get (id), nullValue ());
+	}
+
+	@Test
+	public void it_should_acknowledge_cumulatively_in_client_mode () {
+		StompAckTracker<String> tracker = new StompAckTracker<> (0, StompAckTracker.Mode.CLIENT, 100);
+		long [] ids = track (tracker, 10);
+
+		assertThat (tracker.ack (ids[6]), is (7));
+		assertThat (tracker.pending (), is (3));
+		assertThat (tracker.credit (), is (97));
+		assertThat (tracker.get (ids[6]), nullValue ());
+		assertThat (tracker.get (ids[7]), is ("message-7"));
+		assertThat (tracker.ack (ids[3]), is (0));
+	}
+
+	@Test
+	public void it_should_release_acknowledged_messages_for_garbage_collection () throws Exception {
+		StompAckTracker<Object> tracker = new StompAckTracker<> (0, StompAckTracker.Mode.CLIENT, 100);
+		for ( int i = 0; i < 90; i++ ) { tracker.ack (tracker.track (new Object ())); }
+		for ( int i = 0; i < 90; i++ ) { tracker.track (new Object ()); }
+		tracker.ack (tracker.track (new Object ()));
+
+		Field field = StompAckTracker.class.getDeclaredField ("items");
+		field.setAccessible (true);
+		for ( Object item : (Object []) field.get (tracker) ) { assertThat (item, nullValue ()); }
+	}
+
+	@Test
+	public void it_should_acknowledge_single_messages_in_client_individual_mode () {
+		StompAckTracker<String> tracker = new StompAckTracker<> (0, StompAckTracker.Mode.CLIENT_INDIVIDUAL, 100);
+		long [] ids = track (tracker, 10);
+
+		assertThat (tracker.ack (ids[6]), is (1));
+		assertThat (tracker.ack (ids[6]), is (0));
+		assertThat (tracker.pending (), is (9));
+		assertThat (tracker.get (ids[5]), is ("message-5"));
+		assertThat (tracker.get (ids[6]), nullValue ());
+	}
+
+	@Test
+	public void it_should_hand_nacked_messages_back_for_redelivery () {
+		StompAckTracker<String> tracker = new StompAckTracker<> (0, StompAckTracker.Mode.CLIENT_INDIVIDUAL, 100);
+		long [] ids = track (tracker, 10);
+		List<String> redelivered = new ArrayList<> ();
+
+		tracker.ack (ids[4]);
+		assertThat (tracker.nack (ids[2], ids[6], redelivered::add), is (4));
+
+		assertThat (redelivered, contains ("message-2", "message-3", "message-5", "message-6"));
+		assertThat (tracker.pending (), is (5));
+	}
+
+	@Test
+	public void it_should_nack_cumulatively_in_client_mode () {
+		StompAckTracker<String> tracker = new StompAckTracker<> (0, StompAckTracker.Mode.CLIENT, 100);
+		long [] ids = track (tracker, 10);
+		List<String> redelivered = new ArrayList<> ();
+
+		tracker.ack (ids[1]);
+		assertThat (tracker.nack (ids[3], redelivered::add), is (2));
+		assertThat (redelivered, contains ("message-2", "message-3"));
+		assertThat (tracker.pending (), is (6));
+	}
+
+	@Test
+	public void it_should_skip_nacked_holes_on_a_later_cumulative_ack () {
+		StompAckTracker<String> tracker = new StompAckTracker<> (0, StompAckTracker.Mode.CLIENT, 100);
+		long [] ids = track (tracker, 10);
+
+		tracker.nack (ids[4], ids[5], message -> {});
+		assertThat (tracker.ack (ids[8]), is (7));
+		assertThat (tracker.pending (), is (1));
+		assertThat (tracker.credit (), is (99));
+	}
+
+	@Test
+	public void it_should_redeliver_everything_that_is_still_pending () {
+		StompAckTracker<String> tracker = new StompAckTracker<> (0, StompAckTracker.Mode.CLIENT_INDIVIDUAL, 100);
+		long [] ids = track (tracker, 5);
+		List<String> redelivered = new ArrayList<> ();
+
+		tracker.ack (ids[0]);
+		tracker.ack (ids[3]);
+
+		assertThat (tracker.nackAll (redelivered::add), is (3));
+		assertThat (redelivered, contains ("message-1", "message-2", "message-4"));
+		assertThat (tracker.pending (), is (0));
+	}
+
+	@Test
+	public void it_should_refuse_messages_when_the_prefetch_credit_is_used_up () {
+		StompAckTracker<String> tracker = new StompAckTracker<> (0, StompAckTracker.Mode.CLIENT, 3);
+		long [] ids = track (tracker, 3);
+
+		assertThat (tracker.credit (), is (0));
+		assertThrows (IllegalStateException.class, () -> tracker.track ("one too many"));
+
+		tracker.ack (ids[1]);
+		assertThat (tracker.credit (), is (2));
+	}
+
+	@Test
+	public void it_should_keep_track_of_many_outstanding_messages () {
+		StompAckTracker<Integer> tracker = new StompAckTracker<> (0, StompAckTracker.Mode.CLIENT_INDIVIDUAL, 0);
+		long [] ids = new long [10_000];
+		for ( int i = 0; i < ids.length; i++ ) { ids[i] = tracker.track (i); }
+
+		for ( int i = 0; i < ids.length; i += 2 ) { tracker.ack (ids[i]); }
+
+		assertThat (tracker.pending (), is (5000));
+		assertThat (tracker.get (ids[9_999]), is (9_999));
+		assertThat (tracker.get (ids[1_234]), nullValue ());
+		assertThat (tracker.get (ids[1_235]), is (1_235));
+	}
+
+	@Test
+	public void it_should_reuse_slots_after_messages_are_acknowledged () {
+		StompAckTracker<Integer> tracker = new StompAckTracker<> (0, StompAckTracker.Mode.CLIENT, 64);
+		for ( int i = 0; i < 1000; i++ ) {
+			long id = tracker.track (i);
+			assertThat (tracker.get (id), is (i));
+			if ( i % 10 == 9 ) { tracker.ack (id); }
+		}
+		assertThat (tracker.pending (), is (0));
+	}
+
+	@Test
+	public void it_should_route_ack_ids_to_their_subscription () {
+		StompAckTracker<String> tracker = new StompAckTracker<> (7, StompAckTracker.Mode.CLIENT, 10);
+		long id = tracker.track ("message");
+
+		assertThat (StompAckTracker.subscription (id), is (7));
+		assertThrows (IllegalArgumentException.class, () -> {
+			new StompAckTracker<String> (3, StompAckTracker.Mode.CLIENT, 10).ack (id);
+		});
+	}
+
+	@Test
+	public void it_should_complain_about_unknown_ack_ids () {
+		StompAckTracker<String> tracker = new StompAckTracker<> (0, StompAckTracker.Mode.CLIENT, 10);
+		tracker.track ("message");
+		assertThrows (IllegalArgumentException.class, () -> tracker.ack (5));
+	}
+
+	@Test
+	public void it_should_handle_ack_and_nack_frames () {
+		StompAckTracker<String> tracker = new StompAckTracker<> (0, StompAckTracker.Mode.CLIENT_INDIVIDUAL, 10);
+		long [] ids = track (tracker, 3);
+		List<String> redelivered = new ArrayList<> ();
+
+		assertThat (tracker.handle (Stomp.ack ("id", ids[0]), redelivered::add), is (1));
+		assertThat (tracker.handle (Stomp.nack ("id", ids[2]), redelivered::add), is (1));
+
+		assertThat (redelivered, contains ("message-2"));
+		assertThat (tracker.pending (), is (1));
+	}
+
+	private long [] track (StompAckTracker<String> tracker, int count) {
+		long [] ids = new long [count];
+		for ( int i = 0; i < count; i++ ) { ids[i] = tracker.track ("message-" + i); }
+		return ids;
+	}
+
+}
@@ -0,0 +1,86 @@
+package org.tutske.lib.stomp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+
+public class StompBufferPoolTest {
+
+	private final StompBufferPool pool = new StompBufferPool (64, 1024, 2, false);
+
+	@Test
+	public void it_should_round_sizes_up_to_a_power_of_two () {
+		assertThat (pool.acquire (1).length, is (64));
+		assertThat (pool.acquire (65).length, is (128));
+		assertThat (pool.acquire (1024).length, is (1024));
+	}
+
+	@Test
+	public void it_should_not_pool_buffers_above_the_maximum_size () {
+		byte [] buffer = pool.acquire (1025);
+		pool.release (buffer);
+
+		assertThat (buffer.length, is (1025));
+		assertThat (pool.acquire (1025), not (sameInstance (buffer)));
+	}
+
+	@Test
+	public void it_should_hand_out_released_buffers_again () {
+		byte [] buffer = pool.acquire (100);
+		pool.release (buffer);
+
+		assertThat (pool.acquire (120), sameInstance (buffer));
+	}
+
+	@Test
+	public void it_should_keep_a_limited_number_of_buffers_per_thread () {
+		byte [] first = pool.acquire (64);
+		byte [] second = pool.acquire (64);
+		byte [] third = pool.acquire (64);
+
+		pool.release (first);
+		pool.release (second);
+		pool.release (third);
+
+		assertThat (pool.acquire (64), sameInstance (second));
+		assertThat (pool.acquire (64), sameInstance (first));
+		assertThat (pool.acquire (64), not (sameInstance (third)));
+	}
+
+	@Test
+	public void it_should_ignore_buffers_it_can_not_have_handed_out () {
+		byte [] odd = new byte [100];
+		pool.release (odd);
+		assertThat (pool.acquire (100), not (sameInstance (odd)));
+	}
+
+	@Test
+	public void it_should_keep_buffers_per_thread () throws Exception {
+		byte [] buffer = pool.acquire (64);
+		Thread thread = new Thread (() -> pool.release (buffer));
+		thread.start ();
+		thread.join ();
+
+		assertThat (pool.acquire (64), not (sameInstance (buffer)));
+	}
+
+	@Test
+	public void it_should_detect_double_releases_and_poison_buffers_in_debug_mode () {
+		StompBufferPool debug = new StompBufferPool (64, 1024, 4, true);
+		byte [] buffer = debug.acquire (64);
+		debug.release (buffer);
+
+		assertThat (buffer[0], is ((byte) 0xFF));
+		assertThrows (IllegalStateException.class, () -> debug.release (buffer));
+	}
+
+	@Test
+	public void it_should_complain_about_invalid_sizes () {
+		assertThrows (IllegalArgumentException.class, () -> new StompBufferPool (0, 10, 1, false));
+		assertThrows (IllegalArgumentException.class, () -> new StompBufferPool (100, 10, 1, false));
+	}
+
+}
@@ -0,0 +1,60 @@
+package org.tutske.lib.stomp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.jupiter.api.Test;
+
+
+public class StompCommandTest {
+
+	@Test
+	public void it_should_match_every_command_from_bytes () {
+		for ( StompCommand command : StompCommand.values () ) {
+			byte [] data = ("  " + command.name () + "\n").getBytes ();
+			assertThat (StompCommand.match (data, 2, data.length - 1), is (command));
+		}
+	}
+
+	@Test
+	public void it_should_find_every_command_by_name () {
+		for ( StompCommand command : StompCommand.values () ) {
+			assertThat (StompCommand.of (command.name ()), is (command));
+		}
+	}
+
+	@Test
+	public void it_should_not_match_unknown_commands () {
+		byte [] data = "SENT\nCOMMAND\nSUBSCRIBER\nX".getBytes ();
+
+		assertThat (StompCommand.match (data, 0, 4), nullValue ());
+		assertThat (StompCommand.match (data, 5, 12), nullValue ());
+		assertThat (StompCommand.match (data, 13, 23), nullValue ());
+		assertThat (StompCommand.match (data, 24, 25), nullValue ());
+		assertThat (StompCommand.of ("PING"), nullValue ());
+	}
+
+	@Test
+	public void it_should_only_skip_escaping_for_connect_frames () {
+		assertThat (StompCommand.CONNECT.escapesHeaders (), is (false));
+		assertThat (StompCommand.CONNECTED.escapesHeaders (), is (false));
+		assertThat (StompCommand.STOMP.escapesHeaders (), is (true));
+		assertThat (StompCommand.MESSAGE.escapesHeaders (), is (true));
+	}
+
+	@Test
+	public void it_should_intern_well_known_header_names () {
+		byte [] data = "destination:/queue/a".getBytes ();
+		assertThat (StompHeaders.wellKnown (data, 0, 11), sameInstance (StompHeaders.DESTINATION));
+	}
+
+	@Test
+	public void it_should_not_intern_unknown_header_names () {
+		byte [] data = "destinatioN:x-custom:".getBytes ();
+
+		assertThat (StompHeaders.wellKnown (data, 0, 11), nullValue ());
+		assertThat (StompHeaders.wellKnown (data, 12, 20), nullValue ());
+		assertThat (StompHeaders.wellKnown (data, 0, 0), nullValue ());
+	}
+
+}
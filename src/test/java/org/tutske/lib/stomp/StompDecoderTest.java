@@ -0,0 +1,348 @@
+package org.tutske.lib.stomp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+
+public class StompDecoderTest {
+
+	private final StompDecoder decoder = new StompDecoder (16);
+
+	@Test
+	public void it_should_decode_a_single_complete_frame () {
+		List<StompFrame> frames = decoder.decode (chunk ("SEND\ndestination:/queue/a\n\nthe body\0"));
+
+		assertThat (frames, hasSize (1));
+		assertThat (frames.get (0).command (), is ("SEND"));
+		assertThat (frames.get (0).header ("destination"), is ("/queue/a"));
+		assertThat (frames.get (0).getBody (), is ("the body"));
+	}
+
+	@Test
+	public void it_should_decode_multiple_frames_from_a_single_chunk () {
+		List<StompFrame> frames = decoder.decode (chunk ("SEND\n\nfirst\0SEND\n\nsecond\0"));
+
+		assertThat (frames, hasSize (2));
+		assertThat (frames.get (0).getBody (), is ("first"));
+		assertThat (frames.get (1).getBody (), is ("second"));
+	}
+
+	@Test
+	public void it_should_wait_for_the_rest_of_a_half_frame () {
+		assertThat (decoder.decode (chunk ("SEND\ndestinat")), empty ());
+		assertThat (decoder.decode (chunk ("ion:/queue/a\n\nthe b")), empty ());
+
+		List<StompFrame> frames = decoder.decode (chunk ("ody\0"));
+		assertThat (frames, hasSize (1));
+		assertThat (frames.get (0).header ("destination"), is ("/queue/a"));
+		assertThat (frames.get (0).getBody (), is ("the body"));
+	}
+
+	@Test
+	public void it_should_decode_frames_fed_one_byte_at_a_time () {
+		String raw = "SEND\r\ncontent-length:9\r\n\r\nwith\0null\0\nMESSAGE\nid:1\n\nsecond\0";
+		List<StompFrame> frames = new ArrayList<> ();
+
+		for ( byte b : raw.getBytes () ) {
+			decoder.decode (ByteBuffer.wrap (new byte [] { b }), frames::add);
+		}
+
+		assertThat (frames, hasSize (3));
+		assertThat (frames.get (0).command (), is ("SEND"));
+		assertThat (frames.get (1).command (), is ("PING"));
+		assertThat (frames.get (2).command (), is ("MESSAGE"));
+		assertThat (frames.get (2).header ("id"), is ("1"));
+		assertThat (frames.get (2).getBody (), is ("second"));
+	}
+
+	@Test
+	public void it_should_emit_pings_for_heart_beats_between_frames () {
+		List<StompFrame> frames = decoder.decode (chunk ("\n\r\nSEND\n\nbody\0\n"));
+
+		assertThat (frames, hasSize (4));
+		assertThat (frames.get (0).command (), is ("PING"));
+		assertThat (frames.get (1).command (), is ("PING"));
+		assertThat (frames.get (2).command (), is ("SEND"));
+		assertThat (frames.get (3).command (), is ("PING"));
+	}
+
+	@Test
+	public void it_should_read_over_nulls_when_a_content_length_is_specified () {
+		List<StompFrame> frames = decoder.decode (chunk ("SEND\ncontent-length: 13\n\nthe body\0tail\0"));
+
+		assertThat (frames, hasSize (1));
+		assertThat (frames.get (0).getBody (), is ("the body\0tail"));
+	}
+
+	@Test
+	public void it_should_keep_previously_decoded_frames_intact_when_the_buffer_is_reused () {
+		List<StompFrame> frames = new ArrayList<> ();
+		for ( int i = 0; i < 100; i++ ) {
+			decoder.decode (chunk ("SEND\nid:" + i + "\n\nbody " + i + "\0"), frames::add);
+		}
+
+		assertThat (frames, hasSize (100));
+		for ( int i = 0; i < 100; i++ ) {
+			assertThat (frames.get (i).header ("id"), is ("" + i));
+			assertThat (frames.get (i).getBody (), is ("body " + i));
+		}
+	}
+
+	@Test
+	public void it_should_decode_frames_larger_than_the_initial_buffer () {
+		String body = "x".repeat (10_000);
+		List<StompFrame> frames = decoder.decode (chunk ("SEND\n\n" + body + "\0"));
+
+		assertThat (frames, hasSize (1));
+		assertThat (frames.get (0).getBody (), is (body));
+	}
+
+	@Test
+	public void it_should_read_frames_directly_from_a_channel () throws Exception {
+		byte [] raw = "SEND\n\nfirst\0\nSEND\n\nsecond\0".getBytes ();
+		ReadableByteChannel channel = Channels.newChannel (new ByteArrayInputStream (raw));
+		List<StompFrame> frames = new ArrayList<> ();
+
+		while ( decoder.read (channel, frames::add) >= 0 ) {}
+
+		assertThat (frames, hasSize (3));
+		assertThat (frames.get (0).getBody (), is ("first"));
+		assertThat (frames.get (2).getBody (), is ("second"));
+		assertThat (decoder.isIdle (), is (true));
+	}
+
+	@Test
+	public void it_should_track_how_many_bytes_are_buffered () {
+		decoder.decode (chunk ("SEND\n\nfirst\0SEND\n"));
+		assertThat (decoder.buffered (), is (5));
+	}
+
+	@Test
+	public void it_should_complain_when_the_content_length_does_not_end_at_a_null () {
+		assertThrows (RuntimeException.class, () -> {
+			decoder.decode (chunk ("SEND\ncontent-length:2\n\nthe body\0"));
+		});
+	}
+
+	@Test
+	public void it_should_complain_about_invalid_content_lengths () {
+		assertThrows (RuntimeException.class, () -> {
+			decoder.decode (chunk ("SEND\ncontent-length:abc\n\nthe body\0"));
+		});
+	}
+
+	@Test
+	public void it_should_complain_about_signed_content_lengths () {
+		assertThrows (StompProtocolException.class, () -> decoder.decode (chunk ("SEND\ncontent-length:+4\n\nbody\0")));
+	}
+
+	@Test
+	public void it_should_decode_headers_split_across_chunks () {
+		List<StompFrame> frames = new ArrayList<> ();
+		feedInChunks ("SEND\r\ndestination:/queue/a\r\nkey:with:colons\nempty:\n\nbody\0", 3, frames);
+
+		assertThat (frames, hasSize (1));
+		assertThat (frames.get (0).command (), is ("SEND"));
+		assertThat (frames.get (0).headers (), is (Map.of ("destination", "/queue/a", "key", "with:colons", "empty", "")));
+		assertThat (frames.get (0).getBody (), is ("body"));
+	}
+
+	@Test
+	public void it_should_complain_about_headers_without_a_colon () {
+		assertThrows (StompProtocolException.class, () -> decoder.decode (chunk ("SEND\nno-colon\n\n\0")));
+		decoder.reset ();
+		assertThrows (StompProtocolException.class, () -> decoder.decode (chunk ("SEND\n:no-name\n\n\0")));
+	}
+
+	@Test
+	public void it_should_complain_about_content_lengths_that_do_not_fit_in_memory () {
+		StompProtocolException e = assertThrows (StompProtocolException.class, () -> {
+			decoder.decode (chunk ("SEND\ncontent-length:4294967296\n\nbody\0"));
+		});
+		assertThat (e.getMessage (), containsString ("content length too large"));
+	}
+
+	@Test
+	public void it_should_accept_huge_content_lengths_that_will_be_spilled (@TempDir Path dir) {
+		decoder.spillBodiesAbove (1024, dir);
+		decoder.decode (chunk ("SEND\ncontent-length:4294967296\n\nbody"));
+		assertThat (decoder.isIdle (), is (false));
+		decoder.reset ();
+	}
+
+	@Test
+	public void it_should_check_the_body_limit_against_the_content_length () {
+		decoder.limits (StompLimits.NONE.maxBodySize (2));
+		StompProtocolException e = assertThrows (StompProtocolException.class, () -> {
+			decoder.decode (chunk ("SEND\ncontent-length:4\n\nbody\0"));
+		});
+		assertThat (e.reason (), is (StompProtocolException.Reason.BODY_TOO_LARGE));
+	}
+
+	@Test
+	public void it_should_start_fresh_after_a_reset () {
+		decoder.limits (StompLimits.NONE.maxHeaders (2));
+		decoder.decode (chunk ("SEND\na:1\nb:2\n"));
+		decoder.reset ();
+
+		StompFrame frame = decoder.decode (chunk ("SEND\nc:3\nd:4\n\nbody\0")).get (0);
+		assertThat (frame.getBody (), is ("body"));
+	}
+
+	@Test
+	public void it_should_spill_large_bodies_with_a_content_length (@TempDir Path dir) throws Exception {
+		String body = "0123456789".repeat (1000);
+		decoder.spillBodiesAbove (1024, dir);
+		List<StompFrame> frames = new ArrayList<> ();
+
+		feedInChunks ("SEND\ndestination:/queue/a\ncontent-length:10000\n\n" + body + "\0SEND\n\nnext\0", 333, frames);
+
+		assertThat (frames, hasSize (2));
+		assertThat (frames.get (0).isSpilled (), is (true));
+		assertThat (frames.get (0).header ("destination"), is ("/queue/a"));
+		assertThat (frames.get (0).spilledBody ().length (), is (10_000L));
+		assertThat (new String (frames.get (0).spilledBody ().inputStream ().readAllBytes ()), is (body));
+		assertThat (frames.get (1).isSpilled (), is (false));
+		assertThat (frames.get (1).getBody (), is ("next"));
+	}
+
+	@Test
+	public void it_should_spill_large_bodies_without_a_content_length (@TempDir Path dir) throws Exception {
+		String body = "0123456789".repeat (1000);
+		decoder.spillBodiesAbove (1024, dir);
+		List<StompFrame> frames = new ArrayList<> ();
+
+		feedInChunks ("SEND\ndestination:/queue/a\n\n" + body + "\0\nSEND\n\nnext\0", 500, frames);
+
+		assertThat (frames, hasSize (3));
+		assertThat (frames.get (0).isSpilled (), is (true));
+		assertThat (frames.get (0).getBody (), is (body));
+		assertThat (frames.get (1).command (), is ("PING"));
+		assertThat (frames.get (2).getBody (), is ("next"));
+	}
+
+	@Test
+	public void it_should_spill_bodies_straight_from_direct_buffers (@TempDir Path dir) throws Exception {
+		String body = "0123456789".repeat (1000);
+		decoder.spillBodiesAbove (1024, dir);
+
+		byte [] raw = ("SEND\ncontent-length:10000\n\n" + body + "\0").getBytes ();
+		ByteBuffer direct = ByteBuffer.allocateDirect (raw.length);
+		direct.put (raw).flip ();
+
+		List<StompFrame> frames = decoder.decode (direct);
+
+		assertThat (frames, hasSize (1));
+		assertThat (frames.get (0).bodyLength (), is (10_000));
+		assertThat (frames.get (0).getBody (), is (body));
+	}
+
+	@Test
+	public void it_should_spill_bodies_read_from_a_channel (@TempDir Path dir) throws Exception {
+		String body = "0123456789".repeat (10_000);
+		decoder.spillBodiesAbove (1024, dir);
+
+		byte [] raw = ("SEND\ncontent-length:100000\n\n" + body + "\0SEND\n\nnext\0").getBytes ();
+		ReadableByteChannel channel = Channels.newChannel (new ByteArrayInputStream (raw));
+		List<StompFrame> frames = new ArrayList<> ();
+
+		while ( decoder.read (channel, frames::add) >= 0 ) {}
+
+		assertThat (frames, hasSize (2));
+		assertThat (frames.get (0).isSpilled (), is (true));
+		assertThat (frames.get (0).getBody (), is (body));
+		assertThat (frames.get (1).getBody (), is ("next"));
+	}
+
+	@Test
+	public void it_should_forward_spilled_frames_unchanged (@TempDir Path dir) throws Exception {
+		String raw = "SEND\ncontent-length:2000\n\n" + "x".repeat (2000) + "\0";
+		decoder.spillBodiesAbove (1024, dir);
+
+		StompFrame frame = decoder.decode (chunk (raw)).get (0);
+		ByteArrayOutputStream out = new ByteArrayOutputStream ();
+		StompEncoder.write (frame, Channels.newChannel (out));
+
+		assertThat (new String (out.toByteArray ()), is (raw));
+		assertThat (new String (frame.raw ()), is (raw));
+	}
+
+	@Test
+	public void it_should_not_leave_spill_files_behind (@TempDir Path dir) throws Exception {
+		decoder.spillBodiesAbove (16, dir);
+		StompFrame frame = decoder.decode (chunk ("SEND\n\n" + "x".repeat (100) + "\0")).get (0);
+		frame.spilledBody ().close ();
+
+		try ( Stream<Path> files = Files.list (dir) ) {
+			assertThat (files.count (), is (0L));
+		}
+	}
+
+	@Test
+	public void it_should_close_spilled_bodies_once_they_are_released (@TempDir Path dir) {
+		decoder.spillBodiesAbove (16, dir);
+		StompFrame frame = decoder.decode (chunk ("SEND\n\n" + "x".repeat (100) + "\0")).get (0);
+
+		frame.releaseSpilled ();
+
+		assertThat (frame.spilledBody ().channel ().isOpen (), is (false));
+	}
+
+	@Test
+	public void it_should_leave_retained_spilled_bodies_open (@TempDir Path dir) throws Exception {
+		decoder.spillBodiesAbove (16, dir);
+		StompFrame frame = decoder.decode (chunk ("SEND\n\n" + "x".repeat (100) + "\0")).get (0);
+
+		frame.retain ().releaseSpilled ();
+
+		assertThat (frame.spilledBody ().channel ().isOpen (), is (true));
+		frame.spilledBody ().close ();
+	}
+
+	@Test
+	public void it_should_spill_to_the_default_temporary_directory_without_a_directory () throws Exception {
+		decoder.spillBodiesAbove (16, null);
+		StompFrame frame = decoder.decode (chunk ("SEND\ncontent-length:100\n\n" + "x".repeat (100) + "\0")).get (0);
+
+		assertThat (frame.isSpilled (), is (true));
+		assertThat (new String (frame.spilledBody ().inputStream ().readAllBytes ()), is ("x".repeat (100)));
+		frame.spilledBody ().close ();
+	}
+
+	@Test
+	public void it_should_not_spill_small_bodies (@TempDir Path dir) {
+		decoder.spillBodiesAbove (1024, dir);
+		StompFrame frame = decoder.decode (chunk ("SEND\ncontent-length:4\n\nbody\0")).get (0);
+
+		assertThat (frame.isSpilled (), is (false));
+		assertThat (frame.getBody (), is ("body"));
+	}
+
+	private void feedInChunks (String raw, int size, List<StompFrame> frames) {
+		byte [] bytes = raw.getBytes ();
+		for ( int i = 0; i < bytes.length; i += size ) {
+			decoder.decode (ByteBuffer.wrap (bytes, i, Math.min (size, bytes.length - i)), frames::add);
+		}
+	}
+
+	private ByteBuffer chunk (String data) {
+		return ByteBuffer.wrap (data.getBytes ());
+	}
+
+}
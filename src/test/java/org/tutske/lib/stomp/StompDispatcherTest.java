@@ -0,0 +1,172 @@
+package org.tutske.lib.stomp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class StompDispatcherTest {
+
+	@Test
+	public void it_should_keep_frames_of_a_session_in_order () {
+		Map<String, List<Integer>> seen = new ConcurrentHashMap<> ();
+		StompDispatcher<String> dispatcher = new StompDispatcher<> (4, 64, (session, frame) -> {
+			seen.computeIfAbsent (session, key -> new ArrayList<> ()).add (frame.headerInt ("seq", -1));
+		});
+
+		try ( dispatcher ) {
+			for ( int i = 0; i < 1000; i++ ) {
+				submit (dispatcher, "session-" + (i % 10), i);
+			}
+		}
+
+		assertThat (seen.size (), is (10));
+		for ( int s = 0; s < 10; s++ ) {
+			List<Integer> sequence = seen.get ("session-" + s);
+			assertThat (sequence, hasSize (100));
+			for ( int i = 0; i < 100; i++ ) { assertThat (sequence.get (i), is (i * 10 + s)); }
+		}
+	}
+
+	@Test
+	public void it_should_handle_sessions_on_different_lanes_in_parallel () throws Exception {
+		Set<Thread> threads = ConcurrentHashMap.newKeySet ();
+		CountDownLatch both = new CountDownLatch (2);
+
+		try ( StompDispatcher<Integer> dispatcher = new StompDispatcher<> (2, 16, (session, frame) -> {
+			threads.add (Thread.currentThread ());
+			both.countDown ();
+			try { both.await (5, TimeUnit.SECONDS); }
+			catch (InterruptedException e) { Thread.currentThread ().interrupt (); }
+		}) ) {
+			int first = 0;
+			int second = 1;
+			while ( dispatcher.lane (second) == dispatcher.lane (first) ) { second++; }
+
+			dispatcher.submit (first, frame (0));
+			dispatcher.submit (second, frame (1));
+
+			assertThat (both.await (5, TimeUnit.SECONDS), is (true));
+		}
+
+		assertThat (threads, hasSize (2));
+	}
+
+	@Test
+	public void it_should_push_back_when_a_lane_is_full () throws Exception {
+		CountDownLatch release = new CountDownLatch (1);
+		CountDownLatch started = new CountDownLatch (1);
+
+		try ( StompDispatcher<String> dispatcher = new StompDispatcher<> (1, 4, (session, frame) -> {
+			started.countDown ();
+			try { release.await (5, TimeUnit.SECONDS); }
+			catch (InterruptedException e) { Thread.currentThread ().interrupt (); }
+		}) ) {
+			dispatcher.submit ("s", frame (0));
+			started.await (5, TimeUnit.SECONDS);
+
+			int accepted = 0;
+			while ( dispatcher.offer ("s", frame (accepted)) ) { accepted++; }
+
+			assertThat (accepted, is (3));
+			assertThat (dispatcher.depth (0), is (4));
+			assertThat (dispatcher.highWatermark (0), is (4));
+			assertThat (dispatcher.rejected (0), is (1L));
+
+			release.countDown ();
+		}
+	}
+
+	@Test
+	public void it_should_block_submitters_until_there_is_room () throws Exception {
+		AtomicInteger handled = new AtomicInteger ();
+		CountDownLatch release = new CountDownLatch (1);
+
+		StompDispatcher<String> dispatcher = new StompDispatcher<> (1, 4, (session, frame) -> {
+			try { release.await (5, TimeUnit.SECONDS); }
+			catch (InterruptedException e) { Thread.currentThread ().interrupt (); }
+			handled.incrementAndGet ();
+		});
+
+		Thread producer = new Thread (() -> {
+			for ( int i = 0; i < 20; i++ ) { submit (dispatcher, "s", i); }
+		});
+		producer.start ();
+
+		Thread.sleep (50);
+		assertThat (producer.isAlive (), is (true));
+
+		release.countDown ();
+		producer.join (5000);
+		dispatcher.close ();
+
+		assertThat (handled.get (), is (20));
+		assertThat (dispatcher.processed (0), is (20L));
+	}
+
+	@Test
+	public void it_should_keep_going_when_a_handler_fails () throws Exception {
+		AtomicInteger handled = new AtomicInteger ();
+		Thread.UncaughtExceptionHandler quiet = (thread, e) -> {};
+
+		StompDispatcher<String> dispatcher = new StompDispatcher<> (1, 16, (session, frame) -> {
+			if ( handled.incrementAndGet () == 1 ) { throw new IllegalStateException ("first one fails"); }
+		}, runnable -> {
+			Thread thread = new Thread (runnable);
+			thread.setUncaughtExceptionHandler (quiet);
+			return thread;
+		});
+
+		try ( dispatcher ) {
+			for ( int i = 0; i < 3; i++ ) { dispatcher.submit ("s", frame (i)); }
+		}
+
+		assertThat (handled.get (), is (3));
+	}
+
+	@Test
+	public void it_should_accept_frames_from_several_producers_on_one_lane () throws Exception {
+		Map<String, List<Integer>> seen = new ConcurrentHashMap<> ();
+		StompDispatcher<String> dispatcher = new StompDispatcher<> (1, 16, (session, frame) -> {
+			seen.computeIfAbsent (session, key -> new ArrayList<> ()).add (frame.headerInt ("seq", -1));
+		});
+
+		try ( dispatcher ) {
+			Thread [] producers = new Thread [4];
+			for ( int p = 0; p < producers.length; p++ ) {
+				String session = "session-" + p;
+				producers[p] = new Thread (() -> {
+					for ( int i = 0; i < 5000; i++ ) { submit (dispatcher, session, i); }
+				});
+				producers[p].start ();
+			}
+			for ( Thread producer : producers ) { producer.join (); }
+		}
+
+		assertThat (seen.size (), is (4));
+		for ( List<Integer> sequence : seen.values () ) {
+			assertThat (sequence, hasSize (5000));
+			for ( int i = 0; i < 5000; i++ ) { assertThat (sequence.get (i), is (i)); }
+		}
+	}
+
+	private void submit (StompDispatcher<String> dispatcher, String session, int seq) {
+		try { dispatcher.submit (session, frame (seq)); }
+		catch (InterruptedException e) { throw new AssertionError (e); }
+	}
+
+	private StompFrame frame (int seq) {
+		return StompFrame.builder ("SEND").header ("seq", seq).build ();
+	}
+
+}
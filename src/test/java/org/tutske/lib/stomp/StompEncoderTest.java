@@ -0,0 +1,124 @@
+package org.tutske.lib.stomp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+
+public class StompEncoderTest {
+
+	private final Map<String, Object> headers = Stomp.headers (
+		"destination", "/queue/a",
+		"content-length", 8,
+		"with:colon", "line\nbreak",
+		"unicode", "h\u00e9llo \u20ac \ud83d\ude00"
+	);
+	private final byte [] body = "the body".getBytes ();
+
+	@Test
+	public void it_should_compute_the_exact_encoded_length () {
+		ByteBuffer target = ByteBuffer.allocate (1024);
+		int length = StompEncoder.encode ("SEND", headers, body, target);
+
+		assertThat (length, is (StompEncoder.encodedLength ("SEND", headers, body)));
+		assertThat (target.position (), is (length));
+	}
+
+	@Test
+	public void it_should_encode_frames_that_parse_back_to_the_same_frame () {
+		ByteBuffer target = ByteBuffer.allocate (1024);
+		int length = StompEncoder.encode ("SEND", headers, body, target);
+
+		StompFrame frame = StompFrame.fromRaw (target.array (), 0, length);
+
+		assertThat (frame.command (), is ("SEND"));
+		assertThat (frame.header ("destination"), is ("/queue/a"));
+		assertThat (frame.header ("content-length"), is ("8"));
+		assertThat (frame.header ("with:colon"), is ("line\nbreak"));
+		assertThat (frame.header ("unicode"), is ("h\u00e9llo \u20ac \ud83d\ude00"));
+		assertThat (frame.getBody (), is ("the body"));
+	}
+
+	@Test
+	public void it_should_escape_special_characters_in_headers () {
+		ByteBuffer target = ByteBuffer.allocate (1024);
+		int length = StompEncoder.encode ("SEND", Stomp.headers ("a:b", "c\\d\r"), new byte [] {}, target);
+
+		assertThat (new String (target.array (), 0, length), is ("SEND\na\\cb:c\\\\d\\r\n\n\0"));
+	}
+
+	@Test
+	public void it_should_write_negative_numbers () {
+		ByteBuffer target = ByteBuffer.allocate (1024);
+		int length = StompEncoder.encode ("SEND", Stomp.headers ("n", -1204L, "m", Long.MIN_VALUE), new byte [] {}, target);
+
+		assertThat (new String (target.array (), 0, length), is ("SEND\nn:-1204\nm:" + Long.MIN_VALUE + "\n\n\0"));
+	}
+
+	@Test
+	public void it_should_encode_into_direct_buffers () {
+		ByteBuffer target = ByteBuffer.allocateDirect (1024);
+		int length = StompEncoder.encode ("SEND", headers, body, target);
+
+		byte [] bytes = new byte [length];
+		target.flip ().get (bytes);
+
+		assertThat (bytes, is (StompFrame.fromData ("SEND", headers, body).raw ()));
+	}
+
+	@Test
+	public void it_should_complain_when_the_target_is_too_small () {
+		ByteBuffer target = ByteBuffer.allocate (10);
+
+		assertThrows (BufferOverflowException.class, () -> {
+			StompEncoder.encode ("SEND", headers, body, target);
+		});
+		assertThat (target.position (), is (0));
+	}
+
+	@Test
+	public void it_should_write_frames_to_a_channel () throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream ();
+		long written = new StompEncoder ().write ("SEND", headers, body, Channels.newChannel (out));
+
+		assertThat (written, is ((long) out.size ()));
+		assertThat (out.toByteArray (), is (StompFrame.fromData ("SEND", headers, body).raw ()));
+	}
+
+	@Test
+	public void it_should_write_frames_to_a_gathering_channel (@TempDir Path dir) throws Exception {
+		Path file = dir.resolve ("frames");
+		StompEncoder encoder = new StompEncoder ();
+
+		try ( FileChannel channel = FileChannel.open (file, StandardOpenOption.CREATE, StandardOpenOption.WRITE) ) {
+			encoder.write ("SEND", headers, body, channel);
+			StompEncoder.write (Stomp.message (), channel);
+		}
+
+		String expected = new String (StompFrame.fromData ("SEND", headers, body).raw ()) + "MESSAGE\n\n\0";
+		assertThat (new String (Files.readAllBytes (file)), is (expected));
+	}
+
+	@Test
+	public void it_should_create_frames_without_parsing_them_back () {
+		StompFrame frame = StompFrame.fromData ("SEND", headers, body);
+
+		assertThat (frame.header ("with:colon"), is ("line\nbreak"));
+		assertThat (frame.headers (), is (StompFrame.fromRaw (frame.raw ()).headers ()));
+		assertThat (frame.getBody (), is ("the body"));
+	}
+
+}
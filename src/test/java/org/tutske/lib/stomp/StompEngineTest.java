@@ -0,0 +1,295 @@
+package org.tutske.lib.stomp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+
+public class StompEngineTest {
+
+	private final StompEngine server = new StompEngine (new EchoBroker ());
+	private final Client client = new Client ();
+	private final StompEngine clients = new StompEngine (client);
+
+	@AfterEach
+	public void shutdown () {
+		clients.close ();
+		server.close ();
+	}
+
+	@Test
+	public void it_should_connect_and_exchange_frames_over_loopback () throws Exception {
+		StompConnection connection = connect ();
+
+		connection.send (Stomp.connect (Stomp.headers ("accept-version", "1.2", "host", "localhost")));
+		assertThat (client.next ().command (), is ("CONNECTED"));
+
+		connection.send (Stomp.send (Stomp.headers ("destination", "/queue/a"), "hello".getBytes ()));
+		StompFrame message = client.next ();
+		assertThat (message.command (), is ("MESSAGE"));
+		assertThat (message.header ("destination"), is ("/queue/a"));
+		assertThat (message.getBody (), is ("hello"));
+	}
+
+	@Test
+	public void it_should_keep_pipelined_frames_in_order () throws Exception {
+		StompConnection connection = connect ();
+
+		for ( int i = 0; i < 1000; i++ ) {
+			connection.send (Stomp.send (Stomp.headers ("destination", "/queue/a"), ("" + i).getBytes ()));
+		}
+
+		for ( int i = 0; i < 1000; i++ ) {
+			assertThat (client.next ().getBody (), is ("" + i));
+		}
+	}
+
+	@Test
+	public void it_should_not_interleave_frames_sent_from_several_threads () throws Exception {
+		StompConnection connection = connect ();
+		Thread [] senders = new Thread [2];
+
+		for ( int t = 0; t < senders.length; t++ ) {
+			String destination = "/queue/" + t;
+			senders[t] = new Thread (() -> {
+				for ( int i = 0; i < 2000; i++ ) {
+					connection.send (
+						ByteBuffer.wrap (("SEND\ndestination:" + destination + "\n").getBytes ()),
+						ByteBuffer.wrap ("\n".getBytes ()),
+						ByteBuffer.wrap ((i + "\0").getBytes ())
+					);
+				}
+			});
+			senders[t].start ();
+		}
+		for ( Thread sender : senders ) { sender.join (); }
+
+		int [] next = new int [senders.length];
+		for ( int i = 0; i < 2 * 2000; i++ ) {
+			StompFrame frame = client.next ();
+			int t = frame.header ("destination").equals ("/queue/0") ? 0 : 1;
+			assertThat (frame.getBody (), is ("" + next[t]++));
+		}
+	}
+
+	@Test
+	public void it_should_write_frames_larger_than_the_socket_buffers () throws Exception {
+		StompConnection connection = connect ();
+		String body = "0123456789".repeat (400_000);
+
+		connection.send (Stomp.send (Stomp.headers ("destination", "/queue/a"), body.getBytes ()));
+
+		assertThat (client.next ().getBody (), is (body));
+	}
+
+	@Test
+	public void it_should_handle_many_idle_connections () throws Exception {
+		List<StompConnection> connections = new ArrayList<> ();
+		for ( int i = 0; i < 200; i++ ) { connections.add (connect ()); }
+
+		connections.get (137).send (Stomp.send (Stomp.headers ("destination", "/queue/a"), "ping".getBytes ()));
+
+		assertThat (client.next ().getBody (), is ("ping"));
+		assertThat (client.from.poll (5, TimeUnit.SECONDS), sameInstance (connections.get (137)));
+	}
+
+	@Test
+	public void it_should_flush_pending_frames_before_closing_a_connection () throws Exception {
+		StompConnection connection = connect ();
+
+		connection.send (Stomp.disconnect (Stomp.headers ("receipt", "bye")));
+		assertThat (client.next ().command (), is ("RECEIPT"));
+		assertThat (client.closed.await (5, TimeUnit.SECONDS), is (true));
+	}
+
+	@Test
+	public void it_should_close_all_connections_on_shutdown () throws Exception {
+		connect ();
+		connect ();
+
+		clients.close ();
+
+		assertThat (client.closed.await (5, TimeUnit.SECONDS), is (true));
+		assertThat (clients.isRunning (), is (false));
+	}
+
+	@Test
+	public void it_should_coalesce_small_frames_into_fewer_writes () throws Exception {
+		clients.batching (new StompBatching (64 * 1024, 50, TimeUnit.MILLISECONDS));
+		StompConnection connection = connect ();
+
+		for ( int i = 0; i < 100; i++ ) {
+			connection.send (Stomp.send (Stomp.headers ("destination", "/queue/a"), ("" + i).getBytes ()));
+		}
+
+		for ( int i = 0; i < 100; i++ ) {
+			assertThat (client.next ().getBody (), is ("" + i));
+		}
+		assertThat (clients.stats ().writes (), lessThan (10L));
+		assertThat (clients.stats ().buffersPerWrite (), greaterThan (1.0));
+	}
+
+	@Test
+	public void it_should_flush_a_batch_once_its_deadline_passes () throws Exception {
+		clients.batching (new StompBatching (1024 * 1024, 20, TimeUnit.MILLISECONDS));
+		StompConnection connection = connect ();
+
+		connection.send (Stomp.send (Stomp.headers ("destination", "/queue/a"), "late".getBytes ()));
+
+		assertThat (client.next ().getBody (), is ("late"));
+		assertThat (clients.stats ().flushes (), is (1L));
+		assertThat (clients.stats ().maxFlushLatency (TimeUnit.MILLISECONDS), greaterThanOrEqualTo (19L));
+	}
+
+	@Test
+	public void it_should_flush_a_batch_on_request () throws Exception {
+		clients.batching (new StompBatching (1024 * 1024, 1, TimeUnit.HOURS));
+		StompConnection connection = connect ();
+
+		connection.send (Stomp.send (Stomp.headers ("destination", "/queue/a"), "now".getBytes ()));
+		connection.flush ();
+
+		assertThat (client.next ().getBody (), is ("now"));
+	}
+
+	@Test
+	public void it_should_allow_latency_sensitive_frames_to_skip_the_batch () throws Exception {
+		clients.batching (new StompBatching (1024 * 1024, 1, TimeUnit.HOURS));
+		StompConnection connection = connect ();
+
+		connection.send (Stomp.send (Stomp.headers ("destination", "/queue/bulk"), "bulk".getBytes ()));
+		connection.send (Stomp.send (Stomp.headers ("destination", "/queue/urgent"), "urgent".getBytes ()), StompBatching.LATENCY);
+
+		assertThat (client.next ().getBody (), is ("bulk"));
+		assertThat (client.next ().getBody (), is ("urgent"));
+	}
+
+	@Test
+	public void it_should_stop_being_writable_above_the_high_watermark () throws Exception {
+		clients.watermarks (1024, 4096);
+		StompConnection connection = connect ();
+
+		connection.send (Stomp.send (Stomp.headers ("destination", "/queue/a"), "x".repeat (100_000).getBytes ()));
+
+		assertThat (connection.throttled (), is (1L));
+		assertThat (client.writable.await (5, TimeUnit.SECONDS), is (true));
+		assertThat (connection.isWritable (), is (true));
+		assertThat (connection.queued (), lessThanOrEqualTo (1024L));
+		assertThat (client.next ().getBody ().length (), is (100_000));
+	}
+
+	@Test
+	public void it_should_stay_writable_below_the_high_watermark () throws Exception {
+		clients.watermarks (1024, 4096);
+		StompConnection connection = connect ();
+
+		connection.send (Stomp.send (Stomp.headers ("destination", "/queue/a"), "small".getBytes ()));
+
+		assertThat (client.next ().getBody (), is ("small"));
+		assertThat (connection.throttled (), is (0L));
+		assertThat (connection.isWritable (), is (true));
+	}
+
+	@Test
+	public void it_should_keep_running_when_a_task_or_timer_fails () throws Exception {
+		BlockingQueue<Throwable> failures = new LinkedBlockingQueue<> ();
+		StompEngine engine = new StompEngine (new EchoBroker (), runnable -> {
+			Thread thread = new Thread (runnable, "failing-engine");
+			thread.setUncaughtExceptionHandler ((t, e) -> failures.add (e));
+			return thread;
+		});
+
+		try ( engine ) {
+			engine.execute (() -> { throw new IllegalStateException ("task"); });
+			engine.schedule (() -> { throw new IllegalStateException ("timer"); }, System.nanoTime ());
+
+			assertThat (failures.poll (5, TimeUnit.SECONDS).getMessage (), is ("task"));
+			assertThat (failures.poll (5, TimeUnit.SECONDS).getMessage (), is ("timer"));
+			assertThat (engine.isRunning (), is (true));
+		}
+	}
+
+	@Test
+	public void it_should_close_only_the_connection_whose_open_handler_fails () throws Exception {
+		CountDownLatch closed = new CountDownLatch (1);
+		StompEngine engine = new StompEngine (new StompHandler () {
+			@Override public void onOpen (StompConnection connection) { throw new IllegalStateException ("open"); }
+			@Override public void onFrame (StompConnection connection, StompFrame frame) {}
+			@Override public void onClose (StompConnection connection, Throwable cause) { closed.countDown (); }
+		});
+
+		try ( engine ) {
+			InetSocketAddress address = engine.listen (new InetSocketAddress (InetAddress.getLoopbackAddress (), 0))
+				.get (5, TimeUnit.SECONDS);
+			clients.connect (address).get (5, TimeUnit.SECONDS);
+
+			assertThat (closed.await (5, TimeUnit.SECONDS), is (true));
+			assertThat (engine.isRunning (), is (true));
+		}
+	}
+
+	private StompConnection connect () throws Exception {
+		InetSocketAddress address = server.listen (new InetSocketAddress (InetAddress.getLoopbackAddress (), 0))
+			.get (5, TimeUnit.SECONDS);
+		return clients.connect (address).get (5, TimeUnit.SECONDS);
+	}
+
+	private static class EchoBroker implements StompHandler {
+		@Override public void onFrame (StompConnection connection, StompFrame frame) {
+			switch ( frame.command () ) {
+				case "CONNECT":
+					connection.send (Stomp.connected (Stomp.headers ("version", "1.2")));
+					break;
+				case "SEND":
+					connection.send (Stomp.message (
+						Stomp.headers ("destination", frame.header ("destination"), "message-id", 1),
+						frame.getByteBody ()
+					));
+					break;
+				case "DISCONNECT":
+					connection.send (Stomp.receipt (Stomp.headers ("receipt-id", frame.header ("receipt"))));
+					connection.close ();
+					break;
+			}
+		}
+	}
+
+	private static class Client implements StompHandler {
+		final BlockingQueue<StompFrame> frames = new LinkedBlockingQueue<> ();
+		final BlockingQueue<StompConnection> from = new LinkedBlockingQueue<> ();
+		final CountDownLatch closed = new CountDownLatch (1);
+		final CountDownLatch writable = new CountDownLatch (1);
+
+		@Override public void onFrame (StompConnection connection, StompFrame frame) {
+			frames.add (frame);
+			from.add (connection);
+		}
+
+		@Override public void onWritable (StompConnection connection) {
+			writable.countDown ();
+		}
+
+		@Override public void onClose (StompConnection connection, Throwable cause) {
+			closed.countDown ();
+		}
+
+		StompFrame next () throws InterruptedException {
+			StompFrame frame = frames.poll (10, TimeUnit.SECONDS);
+			assertThat (frame, notNullValue ());
+			return frame;
+		}
+	}
+
+}
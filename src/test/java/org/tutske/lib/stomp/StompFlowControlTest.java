@@ -0,0 +1,191 @@
+package org.tutske.lib.stomp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+public class StompFlowControlTest {
+
+	private final List<Long> acks = new ArrayList<> ();
+	private final List<String> messages = new ArrayList<> ();
+	private final List<String> resumed = new ArrayList<> ();
+	private boolean writable = true;
+
+	private final StompFlowControl<String> flow = new StompFlowControl<> (() -> writable, 100, new StompFlowControl.Delivery<> () {
+		@Override public void deliver (String subscription, long ackId, String message) {
+			acks.add (ackId);
+			messages.add (subscription + ":" + message);
+		}
+
+		@Override public void resumed (String subscription) {
+			resumed.add (subscription);
+		}
+	});
+
+	@Test
+	public void it_should_deliver_while_there_is_credit () {
+		flow.subscribe (subscribe ("sub-1", "client", 2));
+
+		assertThat (flow.offer ("sub-1", "a"), is (true));
+		assertThat (flow.offer ("sub-1", "b"), is (true));
+		assertThat (flow.offer ("sub-1", "c"), is (false));
+
+		assertThat (messages, contains ("sub-1:a", "sub-1:b"));
+		assertThat (flow.isPaused ("sub-1"), is (true));
+		assertThat (flow.creditStalls (), is (1L));
+	}
+
+	@Test
+	public void it_should_resume_a_subscription_when_acks_return_credit () {
+		flow.subscribe (subscribe ("sub-1", "client", 2));
+		flow.offer ("sub-1", "a");
+		flow.offer ("sub-1", "b");
+		flow.offer ("sub-1", "c");
+
+		assertThat (flow.handle (Stomp.ack ("id", acks.get (1)), message -> {}), is (2));
+
+		assertThat (resumed, contains ("sub-1"));
+		assertThat (flow.isPaused ("sub-1"), is (false));
+		assertThat (flow.credit ("sub-1"), is (2));
+		assertThat (flow.offer ("sub-1", "c"), is (true));
+	}
+
+	@Test
+	public void it_should_use_the_default_prefetch_without_a_header () {
+		flow.subscribe (Stomp.subscribe (Stomp.headers ("id", "sub-1", "destination", "/queue/a", "ack", "client")));
+		assertThat (flow.credit ("sub-1"), is (100));
+	}
+
+	@Test
+	public void it_should_not_limit_auto_acknowledged_subscriptions_by_credit () {
+		flow.subscribe (subscribe ("sub-1", "auto", 1));
+
+		for ( int i = 0; i < 10; i++ ) { assertThat (flow.offer ("sub-1", "m" + i), is (true)); }
+		assertThat (flow.pending ("sub-1"), is (0));
+	}
+
+	@Test
+	public void it_should_pause_every_subscription_while_the_connection_is_throttled () {
+		flow.subscribe (subscribe ("sub-1", "client-individual", 10));
+		flow.subscribe (subscribe ("sub-2", "client-individual", 10));
+		writable = false;
+
+		assertThat (flow.offer ("sub-1", "a"), is (false));
+		assertThat (flow.offer ("sub-2", "b"), is (false));
+		assertThat (flow.offer ("sub-2", "b"), is (false));
+		assertThat (flow.writeStalls (), is (2L));
+
+		flow.resume ();
+		assertThat (resumed, empty ());
+
+		writable = true;
+		flow.resume ();
+		assertThat (resumed, containsInAnyOrder ("sub-1", "sub-2"));
+		assertThat (flow.resumes (), is (2L));
+	}
+
+	@Test
+	public void it_should_route_acks_to_the_right_subscription () {
+		flow.subscribe (subscribe ("sub-1", "client-individual", 10));
+		flow.subscribe (subscribe ("sub-2", "client-individual", 10));
+		flow.offer ("sub-1", "a");
+		flow.offer ("sub-2", "b");
+
+		flow.handle (Stomp.ack ("id", acks.get (1)), message -> {});
+
+		assertThat (flow.pending ("sub-1"), is (1));
+		assertThat (flow.pending ("sub-2"), is (0));
+	}
+
+	@Test
+	public void it_should_hand_back_nacked_and_unsubscribed_messages () {
+		List<String> redelivered = new ArrayList<> ();
+		flow.subscribe (subscribe ("sub-1", "client-individual", 10));
+		flow.offer ("sub-1", "a");
+		flow.offer ("sub-1", "b");
+		flow.offer ("sub-1", "c");
+
+		flow.handle (Stomp.nack ("id", acks.get (0)), redelivered::add);
+		assertThat (flow.unsubscribe ("sub-1", redelivered::add), is (2));
+
+		assertThat (redelivered, contains ("a", "b", "c"));
+	}
+
+	@Test
+	public void it_should_ignore_acks_for_subscriptions_that_are_gone () {
+		flow.subscribe (subscribe ("sub-1", "client", 10));
+		flow.offer ("sub-1", "a");
+		flow.unsubscribe ("sub-1", message -> {});
+		flow.subscribe (subscribe ("sub-1", "client", 10));
+
+		assertThat (flow.handle (Stomp.ack ("id", acks.get (0)), message -> {}), is (0));
+	}
+
+	@Test
+	public void it_should_reuse_the_slots_of_subscriptions_that_are_gone () {
+		for ( int i = 0; i < 100; i++ ) {
+			flow.subscribe (subscribe ("sub-" + i, "client", 10));
+			flow.offer ("sub-" + i, "m" + i);
+			flow.unsubscribe ("sub-" + i, message -> {});
+		}
+
+		for ( long ackId : acks ) { assertThat (StompAckTracker.subscription (ackId), is (0)); }
+		assertThat (acks.get (99), greaterThan (acks.get (98)));
+	}
+
+	@Test
+	public void it_should_deliver_without_holding_the_lock () throws Exception {
+		List<Integer> credits = new ArrayList<> ();
+		AtomicReference<StompFlowControl<String>> holder = new AtomicReference<> ();
+		holder.set (new StompFlowControl<> (() -> true, 10, (subscription, ackId, message) -> {
+			Thread other = new Thread (() -> credits.add (holder.get ().credit (subscription)));
+			other.start ();
+			try { other.join (5000); }
+			catch (InterruptedException e) { throw new RuntimeException (e); }
+		}));
+
+		holder.get ().subscribe (subscribe ("sub-1", "client", 10));
+		holder.get ().offer ("sub-1", "a");
+
+		assertThat (credits, contains (9));
+	}
+
+	@Test
+	public void it_should_complain_about_a_prefetch_that_is_not_a_number () {
+		StompFrame frame = Stomp.subscribe (Stomp.headers (
+			"id", "sub-1", "destination", "/queue/a", "ack", "client", StompFlowControl.PREFETCH, "lots"
+		));
+		assertThrows (StompProtocolException.class, () -> flow.subscribe (frame));
+	}
+
+	@Test
+	public void it_should_complain_about_acks_for_messages_that_were_never_delivered () {
+		flow.subscribe (subscribe ("sub-1", "client-individual", 10));
+		flow.offer ("sub-1", "a");
+
+		assertThrows (StompProtocolException.class, () -> flow.handle (Stomp.ack ("id", 99), message -> {}));
+		assertThrows (StompProtocolException.class, () -> flow.handle (Stomp.nack ("id", 99), message -> {}));
+		assertThrows (StompProtocolException.class, () -> flow.handle (Stomp.ack ("id", "abc"), message -> {}));
+		assertThat (flow.pending ("sub-1"), is (1));
+	}
+
+	@Test
+	public void it_should_complain_about_duplicate_subscriptions () {
+		flow.subscribe (subscribe ("sub-1", "client", 10));
+		assertThrows (StompProtocolException.class, () -> flow.subscribe (subscribe ("sub-1", "client", 10)));
+	}
+
+	private StompFrame subscribe (String id, String ack, int prefetch) {
+		return Stomp.subscribe (Stomp.headers (
+			"id", id, "destination", "/queue/a", "ack", ack, StompFlowControl.PREFETCH, prefetch
+		));
+	}
+
+}
@@ -0,0 +1,104 @@
+package org.tutske.lib.stomp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+
+public class StompFrameTemplateTest {
+
+	private final Map<String, Object> headers = Stomp.headers (
+		"destination", "/topic/a",
+		"content-type", "text/plain",
+		"with:colon", "line\nbreak"
+	);
+	private final byte [] body = "the body".getBytes ();
+	private final StompFrameTemplate template = StompFrameTemplate.message (headers, body);
+
+	@Test
+	public void it_should_produce_the_same_bytes_as_a_fully_encoded_frame () {
+		Map<String, Object> all = Stomp.headers (
+			"destination", "/topic/a",
+			"content-type", "text/plain",
+			"with:colon", "line\nbreak",
+			"subscription", "sub:1",
+			"message-id", 42
+		);
+
+		StompFrame frame = template.frame ("sub:1", 42);
+
+		assertThat (new String (frame.raw ()), is (new String (Stomp.message (all, body).raw ())));
+		assertThat (frame.header ("subscription"), is ("sub:1"));
+		assertThat (frame.header ("message-id"), is ("42"));
+		assertThat (frame.getBody (), is ("the body"));
+	}
+
+	@Test
+	public void it_should_know_the_length_per_recipient () {
+		ByteBuffer target = ByteBuffer.allocate (1024);
+		template.encode (target, "sub-1", 1234567L);
+
+		assertThat (target.position (), is (template.length ("sub-1", 1234567L)));
+		assertThat (template.headers ("sub-1", 1234567L).remaining (), is (template.headersLength ("sub-1", 1234567L)));
+	}
+
+	@Test
+	public void it_should_share_the_encoded_prefix_and_body_between_recipients () {
+		ByteBuffer [] first = template.buffers (template.headers ("a", 1));
+		ByteBuffer [] second = template.buffers (template.headers ("b", 2));
+
+		assertThat (first[0].isReadOnly (), is (true));
+		assertThat (first[0], is (second[0]));
+		assertThat (first[2], is (second[2]));
+		assertThat (first[1], not (second[1]));
+	}
+
+	@Test
+	public void it_should_fan_out_through_a_gathering_channel (@TempDir Path dir) throws Exception {
+		Path file = dir.resolve ("frames");
+		try ( FileChannel channel = FileChannel.open (file, StandardOpenOption.CREATE, StandardOpenOption.WRITE) ) {
+			for ( int i = 0; i < 3; i++ ) { template.write (channel, "sub-" + i, i); }
+		}
+
+		StompDecoder decoder = new StompDecoder ();
+		List<StompFrame> frames = decoder.decode (ByteBuffer.wrap (Files.readAllBytes (file)));
+
+		assertThat (frames, hasSize (3));
+		for ( int i = 0; i < 3; i++ ) {
+			assertThat (frames.get (i).header ("subscription"), is ("sub-" + i));
+			assertThat (frames.get (i).header ("message-id"), is ("" + i));
+			assertThat (frames.get (i).header ("destination"), is ("/topic/a"));
+			assertThat (frames.get (i).getBody (), is ("the body"));
+		}
+	}
+
+	@Test
+	public void it_should_not_escape_headers_for_connected_frames () {
+		StompFrameTemplate connected = StompFrameTemplate.of ("CONNECTED", Stomp.headers ("version", "1.2"), new byte [] {}, "session");
+		assertThat (new String (connected.frame ("a:b").raw ()), is ("CONNECTED\nversion:1.2\nsession:a:b\n\n\0"));
+	}
+
+	@Test
+	public void it_should_complain_about_missing_header_values () {
+		assertThrows (IllegalArgumentException.class, () -> template.headers ("only-one"));
+	}
+
+	@Test
+	public void it_should_complain_when_a_header_is_both_static_and_variable () {
+		assertThrows (IllegalArgumentException.class, () -> {
+			StompFrameTemplate.of ("MESSAGE", headers, body, "destination");
+		});
+	}
+
+}
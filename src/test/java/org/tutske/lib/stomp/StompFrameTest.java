@@ -7,6 +7,8 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import org.junit.jupiter.api.Test;
 
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -82,10 +84,28 @@ public class StompFrameTest {
 
 	@Test
 	public void it_should_find_headers_with_colons_in_them () {
-		StompFrame message = message ("CONNECT", "with\\ccolon: first", "", "the body");
+		StompFrame message = message ("SEND", "with\\ccolon: first", "", "the body");
 		assertThat (message.hasHeader ("with:colon"), is (true));
 	}
 
+	@Test
+	public void it_should_not_unescape_headers_of_connect_frames () {
+		StompFrame message = message ("CONNECT", "passcode:with\\ccolon:a", "", "");
+		assertThat (message.header ("passcode"), is ("with\\ccolon:a"));
+	}
+
+	@Test
+	public void it_should_unescape_backslashes_in_headers () {
+		StompFrame message = message ("SEND", "path:c\\\\dir", "", "");
+		assertThat (message.header ("path"), is ("c\\dir"));
+	}
+
+	@Test
+	public void it_should_complain_about_undefined_escape_sequences () {
+		StompFrame message = message ("SEND", "value:tab\\there", "", "");
+		assertThrows (RuntimeException.class, () -> message.header ("value"));
+	}
+
 	@Test
 	public void it_should_find_and_convert_primitive_header_values () {
 		StompFrame message = message ("CONNECT", "number: 1234", "", "the body");
@@ -104,6 +124,47 @@ public class StompFrameTest {
 		assertThat (frame.getByteBody (), is ("the body".getBytes ()));
 	}
 
+	@Test
+	public void it_should_expose_the_body_as_a_read_only_view () {
+		StompFrame frame = message ("SEND", "destination:/queue/a", "", "the body");
+		ByteBuffer body = frame.bodyBuffer ();
+
+		assertThat (body.isReadOnly (), is (true));
+		assertThat (body.remaining (), is (frame.bodyLength ()));
+		assertThat (StandardCharsets.UTF_8.decode (body).toString (), is ("the body"));
+	}
+
+	@Test
+	public void it_should_share_the_frame_data_in_the_body_view () throws Exception {
+		StompFrame frame = message ("SEND", "", "the body");
+
+		Field field = frame.getClass ().getDeclaredField ("data");
+		field.setAccessible (true);
+		byte [] data = (byte []) field.get (frame);
+		data[data.length - 2] = 'Y';
+
+		assertThat (StandardCharsets.UTF_8.decode (frame.bodyBuffer ()).toString (), is ("the bodY"));
+	}
+
+	@Test
+	public void it_should_expose_the_raw_frame_as_a_read_only_view () {
+		byte [] raw = "SEND\n\nbody\0SEND\n\nnext\0".getBytes ();
+		StompFrame frame = StompFrame.fromRaw (raw, 0, 11);
+
+		ByteBuffer view = frame.rawBuffer ();
+		byte [] bytes = new byte [view.remaining ()];
+		view.get (bytes);
+
+		assertThat (bytes, is (frame.raw ()));
+		assertThat (new String (bytes), is ("SEND\n\nbody\0"));
+	}
+
+	@Test
+	public void it_should_have_an_empty_body_for_frames_without_a_body_section () {
+		assertThat (StompFrame.ping ().bodyLength (), is (0));
+		assertThat (StompFrame.ping ().getByteBody (), is (new byte [] {}));
+	}
+
 	@Test
 	public void it_should_stop_the_message_at_a_null_byte () {
 		StompFrame message = message ("CONNECT", "", "the body\0tail");
@@ -170,6 +231,83 @@ public class StompFrameTest {
 		assertThat (frame.header ("header").trim (), is ("first"));
 	}
 
+	@Test
+	public void it_should_find_headers_without_building_the_header_map () throws Exception {
+		StompFrame frame = message ("MESSAGE", "destination:/queue/a", "message-id:12", "", "body");
+
+		assertThat (frame.header ("destination"), is ("/queue/a"));
+		assertThat (frame.header ("message-id"), is ("12"));
+		assertThat (frame.header ("missing"), nullValue ());
+
+		Field field = frame.getClass ().getDeclaredField ("headers");
+		field.setAccessible (true);
+		assertThat (field.get (frame), nullValue ());
+	}
+
+	@Test
+	public void it_should_keep_the_first_entry_of_a_header_in_the_header_map () {
+		StompFrame frame = message ("CONNECT", "header:first", "header:second", "other:value", "", "body");
+
+		assertThat (frame.headers (), hasEntry ("header", "first"));
+		assertThat (frame.headers (), hasEntry ("other", "value"));
+		assertThat (frame.headers ().size (), is (2));
+	}
+
+	@Test
+	public void it_should_find_headers_with_escaped_keys_lazily () {
+		StompFrame frame = message ("SEND", "with\\ccolon:value", "", "body");
+		assertThat (frame.header ("with:colon"), is ("value"));
+	}
+
+	@Test
+	public void it_should_find_many_headers () {
+		StringBuilder builder = new StringBuilder ("MESSAGE\n");
+		for ( int i = 0; i < 50; i++ ) { builder.append ("header-").append (i).append (':').append (i).append ('\n'); }
+		builder.append ("\nbody\0");
+
+		StompFrame frame = StompFrame.fromRaw (builder.toString ().getBytes ());
+
+		assertThat (frame.header ("header-0"), is ("0"));
+		assertThat (frame.header ("header-49"), is ("49"));
+		assertThat (frame.headers ().size (), is (50));
+	}
+
+	@Test
+	public void it_should_read_the_body_after_a_CRLF_header_section () {
+		StompFrame frame = messageWithSep ("\r\n", "SEND", "content-length:4", "", "body");
+		assertThat (frame.getBody (), is ("body"));
+	}
+
+	@Test
+	public void it_should_recognise_well_known_commands () {
+		StompFrame frame = message ("SUBSCRIBE", "id:1", "", "");
+
+		assertThat (frame.commandType (), is (StompCommand.SUBSCRIBE));
+		assertThat (frame.command (), sameInstance (StompCommand.SUBSCRIBE.name ()));
+	}
+
+	@Test
+	public void it_should_recognise_well_known_commands_when_CRLF_is_used () {
+		StompFrame frame = messageWithSep ("\r\n", "MESSAGE", "", "");
+		assertThat (frame.commandType (), is (StompCommand.MESSAGE));
+	}
+
+	@Test
+	public void it_should_keep_custom_commands_without_a_command_type () {
+		StompFrame frame = message ("CUSTOM", "", "");
+
+		assertThat (frame.command (), is ("CUSTOM"));
+		assertThat (frame.commandType (), nullValue ());
+	}
+
+	@Test
+	public void it_should_use_interned_names_for_well_known_headers () {
+		StompFrame frame = message ("MESSAGE", "destination:/queue/a", "", "");
+		String key = frame.headers ().keySet ().iterator ().next ();
+
+		assertThat (key, sameInstance (StompHeaders.DESTINATION));
+	}
+
 	@Test
 	public void it_should_create_ping_frames () {
 		StompFrame frame = StompFrame.ping ();
@@ -186,6 +324,98 @@ public class StompFrameTest {
 		assertThat (new String (frame.raw ()), is ("\n"));
 	}
 
+	@Test
+	public void it_should_parse_numeric_headers_from_the_frame_bytes () {
+		StompFrame frame = message ("MESSAGE", "prefetch: 25 ", "offset:-9000000000", "", "");
+
+		assertThat (frame.headerInt ("prefetch", 0), is (25));
+		assertThat (frame.headerLong ("offset", 0), is (-9_000_000_000L));
+		assertThat (frame.headerInt ("missing", 7), is (7));
+		assertThat (frame.headerLong ("missing", -1L), is (-1L));
+	}
+
+	@Test
+	public void it_should_complain_about_numeric_headers_that_do_not_fit () {
+		StompFrame frame = message ("MESSAGE", "offset:9000000000", "huge:99999999999999999999", "text:12a", "", "");
+
+		assertThrows (NumberFormatException.class, () -> frame.headerInt ("offset", 0));
+		assertThrows (NumberFormatException.class, () -> frame.headerLong ("huge", 0));
+		assertThrows (NumberFormatException.class, () -> frame.headerLong ("text", 0));
+	}
+
+	@Test
+	public void it_should_parse_boolean_headers_from_the_frame_bytes () {
+		StompFrame frame = message ("MESSAGE", "persistent:TRUE", "redelivered:false", "other:yes", "", "");
+
+		assertThat (frame.headerBoolean ("persistent", false), is (true));
+		assertThat (frame.headerBoolean ("redelivered", true), is (false));
+		assertThat (frame.headerBoolean ("missing", true), is (true));
+		assertThrows (IllegalArgumentException.class, () -> frame.headerBoolean ("other", false));
+	}
+
+	@Test
+	public void it_should_complain_about_negative_content_lengths () {
+		assertThrows (RuntimeException.class, () -> {
+			message ("SEND", "content-length:-1", "", "the body");
+		});
+	}
+
+	@Test
+	public void it_should_complain_about_content_lengths_that_overflow () {
+		assertThrows (RuntimeException.class, () -> {
+			message ("SEND", "content-length:4294967300", "", "the body");
+		});
+	}
+
+	@Test
+	public void it_should_build_frames_header_by_header () {
+		StompFrame frame = StompFrame.builder ("SEND")
+			.header ("destination", "/queue/a")
+			.header ("content-length", 8)
+			.header ("with:colon", new StringBuilder ("line\nbreak"))
+			.body (ByteBuffer.wrap ("the body".getBytes ()))
+			.build ();
+
+		assertThat (new String (frame.raw ()), is (
+			"SEND\ndestination:/queue/a\ncontent-length:8\nwith\\ccolon:line\\nbreak\n\nthe body\0"
+		));
+		assertThat (frame.header ("with:colon"), is ("line\nbreak"));
+		assertThat (frame.headerInt ("content-length", 0), is (8));
+		assertThat (frame.getBody (), is ("the body"));
+	}
+
+	@Test
+	public void it_should_build_the_same_bytes_as_the_map_based_factories () {
+		StompFrame built = StompFrame.builder ("MESSAGE")
+			.header ("destination", "/topic/a")
+			.header ("message-id", -42)
+			.body ("body".getBytes ())
+			.build ();
+		StompFrame mapped = Stomp.message (Stomp.headers ("destination", "/topic/a", "message-id", -42), "body".getBytes ());
+
+		assertThat (built.raw (), is (mapped.raw ()));
+	}
+
+	@Test
+	public void it_should_grow_the_builder_for_large_frames () {
+		String value = "v".repeat (1000);
+		StompFrameBuilder builder = StompFrame.builder ("SEND");
+		for ( int i = 0; i < 50; i++ ) { builder.header ("header-" + i, value); }
+		StompFrame frame = builder.body (new byte [100_000]).build ();
+
+		assertThat (frame.headers ().size (), is (50));
+		assertThat (frame.header ("header-49"), is (value));
+		assertThat (frame.bodyLength (), is (100_000));
+		assertThat (frame.rawBuffer ().remaining (), is (frame.raw ().length));
+	}
+
+	@Test
+	public void it_should_not_build_a_frame_twice () {
+		StompFrameBuilder builder = StompFrame.builder ("SEND");
+		builder.build ();
+		assertThrows (IllegalStateException.class, builder::build);
+	}
+
 	private StompFrame message (String ... parts) {
 		return messageWithSep ("\n", parts);
 	}
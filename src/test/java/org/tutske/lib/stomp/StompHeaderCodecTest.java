@@ -0,0 +1,121 @@
+package org.tutske.lib.stomp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+
+public class StompHeaderCodecTest {
+
+	@Test
+	public void it_should_return_the_same_string_when_nothing_needs_escaping () {
+		String value = "/queue/plain";
+		assertThat (StompHeaderCodec.escape (value), sameInstance (value));
+		assertThat (StompHeaderCodec.unescape (value), sameInstance (value));
+	}
+
+	@Test
+	public void it_should_escape_all_special_characters () {
+		assertThat (StompHeaderCodec.escape ("a\\b\rc\nd:e"), is ("a\\\\b\\rc\\nd\\ce"));
+	}
+
+	@Test
+	public void it_should_unescape_all_escape_sequences () {
+		assertThat (StompHeaderCodec.unescape ("a\\\\b\\rc\\nd\\ce"), is ("a\\b\rc\nd:e"));
+	}
+
+	@Test
+	public void it_should_not_turn_an_escaped_backslash_into_another_escape () {
+		assertThat (StompHeaderCodec.unescape ("\\\\n"), is ("\\n"));
+		assertThat (decode ("\\\\n", true), is ("\\n"));
+	}
+
+	@Test
+	public void it_should_decode_bytes_with_escapes () {
+		assertThat (decode ("with\\ccolon\\\\", true), is ("with:colon\\"));
+	}
+
+	@Test
+	public void it_should_leave_bytes_as_is_when_not_unescaping () {
+		assertThat (decode ("with\\ccolon", false), is ("with\\ccolon"));
+	}
+
+	@Test
+	public void it_should_decode_utf8_bytes () {
+		assertThat (decode ("h\u00e9llo\\c \u20ac", true), is ("h\u00e9llo: \u20ac"));
+	}
+
+	@Test
+	public void it_should_complain_about_undefined_escape_sequences () {
+		assertThrows (RuntimeException.class, () -> decode ("tab\\t", true));
+		assertThrows (RuntimeException.class, () -> StompHeaderCodec.unescape ("tab\\t"));
+		assertThrows (RuntimeException.class, () -> StompHeaderCodec.unescape ("wide\\\u0163"));
+	}
+
+	@Test
+	public void it_should_complain_about_a_dangling_backslash () {
+		assertThrows (RuntimeException.class, () -> decode ("end\\", true));
+	}
+
+	@Test
+	public void it_should_match_escaped_bytes_against_strings () {
+		byte [] data = "with\\ccolon".getBytes ();
+
+		assertThat (StompHeaderCodec.matches (data, 0, data.length, "with:colon", true), is (true));
+		assertThat (StompHeaderCodec.matches (data, 0, data.length, "with:colo", true), is (false));
+		assertThat (StompHeaderCodec.matches (data, 0, data.length, "with\\ccolon", false), is (true));
+	}
+
+	@Test
+	public void it_should_encode_with_the_exact_length () {
+		String value = "a:b\n\u00e9\u20ac\ud83d\ude00";
+		ByteBuffer target = ByteBuffer.allocate (64);
+		StompHeaderCodec.encode (value, true, target);
+
+		assertThat (target.position (), is (StompHeaderCodec.encodedLength (value, true)));
+		assertThat (decode (target), is (value));
+	}
+
+	@Test
+	public void it_should_not_escape_connect_frames () {
+		assertThat (StompHeaderCodec.escapes ("CONNECT"), is (false));
+		assertThat (StompHeaderCodec.escapes ("CONNECTED"), is (false));
+		assertThat (StompHeaderCodec.escapes ("SEND"), is (true));
+	}
+
+	@Test
+	public void it_should_refuse_line_breaks_when_not_escaping () {
+		assertThrows (IllegalArgumentException.class, () -> {
+			StompHeaderCodec.encode ("line\nbreak", false, ByteBuffer.allocate (64));
+		});
+	}
+
+	@Test
+	public void it_should_parse_the_extremes_of_a_long () {
+		assertThat (parseLong ("9223372036854775807"), is (Long.MAX_VALUE));
+		assertThat (parseLong ("-9223372036854775808"), is (Long.MIN_VALUE));
+		assertThrows (NumberFormatException.class, () -> parseLong ("9223372036854775808"));
+		assertThrows (NumberFormatException.class, () -> parseLong ("-"));
+		assertThrows (NumberFormatException.class, () -> parseLong ("  "));
+	}
+
+	private long parseLong (String value) {
+		byte [] data = value.getBytes (StandardCharsets.UTF_8);
+		return StompHeaderCodec.parseLong (data, 0, data.length);
+	}
+
+	private String decode (String value, boolean unescape) {
+		byte [] data = value.getBytes (StandardCharsets.UTF_8);
+		return StompHeaderCodec.decode (data, 0, data.length, unescape);
+	}
+
+	private String decode (ByteBuffer buffer) {
+		return StompHeaderCodec.decode (buffer.array (), 0, buffer.position (), true);
+	}
+
+}
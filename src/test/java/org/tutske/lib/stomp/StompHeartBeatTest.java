@@ -0,0 +1,119 @@
+package org.tutske.lib.stomp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+public class StompHeartBeatTest {
+
+	@Test
+	public void it_should_parse_the_heart_beat_header () {
+		StompHeartBeat beat = StompHeartBeat.parse ("1000, 2500");
+
+		assertThat (beat.send (), is (1000L));
+		assertThat (beat.receive (), is (2500L));
+		assertThat (beat.toString (), is ("1000,2500"));
+	}
+
+	@Test
+	public void it_should_treat_a_missing_header_as_no_heart_beats () {
+		assertThat (StompHeartBeat.of (Stomp.connect ()), is (StompHeartBeat.NONE));
+		assertThat (StompHeartBeat.NONE.isEnabled (), is (false));
+	}
+
+	@Test
+	public void it_should_read_the_header_from_a_frame () {
+		StompFrame frame = Stomp.connect (Stomp.headers ("heart-beat", "100,200"));
+		assertThat (StompHeartBeat.of (frame), is (StompHeartBeat.of (100, 200)));
+	}
+
+	@Test
+	public void it_should_complain_about_malformed_headers () {
+		assertThrows (IllegalArgumentException.class, () -> StompHeartBeat.parse ("1000"));
+		assertThrows (IllegalArgumentException.class, () -> StompHeartBeat.parse ("a,b"));
+		assertThrows (IllegalArgumentException.class, () -> StompHeartBeat.parse ("-1,0"));
+	}
+
+	@Test
+	public void it_should_negotiate_the_slowest_interval_both_sides_accept () {
+		StompHeartBeat client = StompHeartBeat.of (1000, 5000);
+		StompHeartBeat server = StompHeartBeat.of (2000, 500);
+
+		assertThat (client.negotiate (server), is (StompHeartBeat.of (1000, 5000)));
+		assertThat (server.negotiate (client), is (StompHeartBeat.of (5000, 1000)));
+	}
+
+	@Test
+	public void it_should_disable_a_direction_when_either_side_does_not_want_it () {
+		StompHeartBeat client = StompHeartBeat.of (0, 5000);
+		StompHeartBeat server = StompHeartBeat.of (2000, 0);
+
+		assertThat (client.negotiate (server), is (StompHeartBeat.of (0, 5000)));
+		assertThat (server.negotiate (client), is (StompHeartBeat.of (5000, 0)));
+		assertThat (client.negotiate (StompHeartBeat.NONE), is (StompHeartBeat.NONE));
+	}
+
+	@Test
+	public void it_should_send_pings_on_idle_connections () throws Exception {
+		BlockingQueue<StompFrame> received = new LinkedBlockingQueue<> ();
+		CompletableFuture<StompConnection> accepted = new CompletableFuture<> ();
+
+		try (
+			StompHeartBeats beats = new StompHeartBeats ();
+			StompEngine server = new StompEngine (handler (accepted, null));
+			StompEngine client = new StompEngine ((connection, frame) -> received.add (frame))
+		) {
+			client.connect (listen (server)).get (5, TimeUnit.SECONDS);
+			beats.register (accepted.get (5, TimeUnit.SECONDS), StompHeartBeat.of (20, 0));
+
+			for ( int i = 0; i < 3; i++ ) {
+				StompFrame frame = received.poll (5, TimeUnit.SECONDS);
+				assertThat (frame, notNullValue ());
+				assertThat (frame.command (), is ("PING"));
+			}
+		}
+	}
+
+	@Test
+	public void it_should_close_connections_that_stay_silent () throws Exception {
+		CompletableFuture<StompConnection> accepted = new CompletableFuture<> ();
+		CompletableFuture<Throwable> closed = new CompletableFuture<> ();
+
+		try (
+			StompHeartBeats beats = new StompHeartBeats ();
+			StompEngine server = new StompEngine (handler (accepted, closed));
+			StompEngine client = new StompEngine ((connection, frame) -> {})
+		) {
+			client.connect (listen (server)).get (5, TimeUnit.SECONDS);
+			beats.register (accepted.get (5, TimeUnit.SECONDS), StompHeartBeat.of (0, 20));
+
+			assertThat (closed.get (5, TimeUnit.SECONDS), instanceOf (TimeoutException.class));
+		}
+	}
+
+	private InetSocketAddress listen (StompEngine server) throws Exception {
+		return server.listen (new InetSocketAddress (InetAddress.getLoopbackAddress (), 0)).get (5, TimeUnit.SECONDS);
+	}
+
+	private StompHandler handler (CompletableFuture<StompConnection> accepted, CompletableFuture<Throwable> closed) {
+		return new StompHandler () {
+			@Override public void onOpen (StompConnection connection) { accepted.complete (connection); }
+			@Override public void onFrame (StompConnection connection, StompFrame frame) {}
+			@Override public void onClose (StompConnection connection, Throwable cause) {
+				if ( closed != null ) { closed.complete (cause); }
+			}
+		};
+	}
+
+}
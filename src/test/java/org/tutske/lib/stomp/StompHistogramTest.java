@@ -0,0 +1,82 @@
+package org.tutske.lib.stomp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class StompHistogramTest {
+
+	private final StompHistogram histogram = new StompHistogram ();
+
+	@Test
+	public void it_should_track_count_sum_and_max () {
+		for ( int i = 1; i <= 100; i++ ) { histogram.record (i); }
+
+		assertThat (histogram.count (), is (100L));
+		assertThat (histogram.sum (), is (5050L));
+		assertThat (histogram.max (), is (100L));
+		assertThat (histogram.mean (), is (50.5));
+	}
+
+	@Test
+	public void it_should_estimate_percentiles_within_the_bucket_precision () {
+		for ( int i = 1; i <= 10_000; i++ ) { histogram.record (i); }
+
+		assertThat ((double) histogram.percentile (50), closeTo (5000, 5000 * 0.125));
+		assertThat ((double) histogram.percentile (99), closeTo (9900, 9900 * 0.125));
+		assertThat (histogram.percentile (100), is (10_000L));
+	}
+
+	@Test
+	public void it_should_keep_small_values_exact () {
+		histogram.record (3);
+		histogram.record (3);
+		histogram.record (7);
+
+		List<String> buckets = new ArrayList<> ();
+		histogram.forEach ((lower, upper, count) -> buckets.add (lower + "-" + upper + ":" + count));
+
+		assertThat (buckets, contains ("3-3:2", "7-7:1"));
+	}
+
+	@Test
+	public void it_should_use_contiguous_buckets () {
+		for ( int index = 1; index < 400; index++ ) {
+			assertThat (StompHistogram.lower (index), is (StompHistogram.upper (index - 1) + 1));
+			assertThat (StompHistogram.index (StompHistogram.lower (index)), is (index));
+			assertThat (StompHistogram.index (StompHistogram.upper (index)), is (index));
+		}
+	}
+
+	@Test
+	public void it_should_handle_extreme_values () {
+		histogram.record (Long.MAX_VALUE);
+		histogram.record (-5);
+
+		assertThat (histogram.count (), is (2L));
+		assertThat (histogram.max (), is (Long.MAX_VALUE));
+		assertThat (histogram.percentile (1), is (0L));
+	}
+
+	@Test
+	public void it_should_accept_values_from_many_threads () throws Exception {
+		Thread [] threads = new Thread [4];
+		for ( int t = 0; t < threads.length; t++ ) {
+			threads[t] = new Thread (() -> { for ( int i = 0; i < 10_000; i++ ) { histogram.record (i); } });
+			threads[t].start ();
+		}
+		for ( Thread thread : threads ) { thread.join (); }
+
+		long [] total = { 0 };
+		histogram.forEach ((lower, upper, count) -> total[0] += count);
+
+		assertThat (histogram.count (), is (40_000L));
+		assertThat (total[0], is (40_000L));
+	}
+
+}
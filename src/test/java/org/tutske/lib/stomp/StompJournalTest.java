@@ -0,0 +1,190 @@
+package org.tutske.lib.stomp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+public class StompJournalTest {
+
+	@TempDir
+	public Path dir;
+
+	@Test
+	public void it_should_read_back_appended_frames () {
+		try ( StompJournal journal = StompJournal.open (dir) ) {
+			long first = journal.append (message (0));
+			long second = journal.append (message (1));
+
+			assertThat (first, is (0L));
+			assertThat (second, is (1L));
+			assertThat (journal.read (1).header ("message-id"), is ("1"));
+			assertThat (journal.read (1).getBody (), is ("body 1"));
+		}
+	}
+
+	@Test
+	public void it_should_expose_frames_as_slices_of_the_mapped_segment () {
+		try ( StompJournal journal = StompJournal.open (dir) ) {
+			StompFrame frame = message (0);
+			journal.append (frame);
+
+			ByteBuffer slice = journal.slice (0);
+			byte [] data = new byte [slice.remaining ()];
+			slice.get (data);
+
+			assertThat (slice.isDirect (), is (true));
+			assertThat (data, is (frame.raw ()));
+		}
+	}
+
+	@Test
+	public void it_should_roll_over_to_new_segments () {
+		try ( StompJournal journal = StompJournal.open (dir, 256, 8) ) {
+			for ( int i = 0; i < 20; i++ ) { journal.append (message (i)); }
+
+			assertThat (journal.segments (), greaterThan (1));
+			assertThat (journal.nextOffset (), is (20L));
+			for ( int i = 0; i < 20; i++ ) {
+				assertThat (journal.read (i).getBody (), is ("body " + i));
+			}
+		}
+	}
+
+	@Test
+	public void it_should_replay_from_an_offset_after_reopening () {
+		try ( StompJournal journal = StompJournal.open (dir, 256, 8) ) {
+			for ( int i = 0; i < 20; i++ ) { journal.append (message (i)); }
+		}
+
+		try ( StompJournal journal = StompJournal.open (dir, 256, 8) ) {
+			List<String> bodies = new ArrayList<> ();
+			journal.replay (15, frame -> bodies.add (frame.getBody ()));
+
+			assertThat (bodies, contains ("body 15", "body 16", "body 17", "body 18", "body 19"));
+			assertThat (journal.append (message (20)), is (20L));
+		}
+	}
+
+	@Test
+	public void it_should_replay_into_a_reusable_frame () {
+		try ( StompJournal journal = StompJournal.open (dir) ) {
+			for ( int i = 0; i < 5; i++ ) { journal.append (message (i)); }
+
+			MutableStompFrame frame = new MutableStompFrame ();
+			List<String> ids = new ArrayList<> ();
+			journal.replay (0, frame, f -> ids.add (f.header ("message-id")));
+			frame.release ();
+
+			assertThat (ids, contains ("0", "1", "2", "3", "4"));
+		}
+	}
+
+	@Test
+	public void it_should_drop_a_torn_record_at_the_tail () throws Exception {
+		try ( StompJournal journal = StompJournal.open (dir, 4096, 1) ) {
+			for ( int i = 0; i < 3; i++ ) { journal.append (message (i)); }
+		}
+
+		Path segment = segments ().get (0);
+		long third = positionOf (segment, 2);
+		try ( RandomAccessFile file = new RandomAccessFile (segment.toFile (), "rw") ) {
+			file.seek (third + 12);
+			file.write ("garbage".getBytes ());
+		}
+
+		try ( StompJournal journal = StompJournal.open (dir, 4096, 1) ) {
+			assertThat (journal.nextOffset (), is (2L));
+			assertThat (journal.append (message (9)), is (2L));
+			assertThat (journal.read (2).getBody (), is ("body 9"));
+		}
+
+		try ( StompJournal journal = StompJournal.open (dir, 4096, 1) ) {
+			assertThat (journal.nextOffset (), is (3L));
+		}
+	}
+
+	@Test
+	public void it_should_keep_spilled_bodies () throws Exception {
+		StompDecoder decoder = new StompDecoder ().spillBodiesAbove (16, dir.resolve ("spill"));
+		Files.createDirectories (dir.resolve ("spill"));
+		StompFrame spilled = decoder.decode (ByteBuffer.wrap (
+			("SEND\ncontent-length:100\n\n" + "x".repeat (100) + "\0").getBytes ()
+		)).get (0);
+		assertThat (spilled.isSpilled (), is (true));
+
+		try ( StompJournal journal = StompJournal.open (dir.resolve ("journal")) ) {
+			journal.append (spilled);
+			assertThat (journal.read (0).getBody (), is ("x".repeat (100)));
+		}
+
+		ByteArrayOutputStream forwarded = new ByteArrayOutputStream ();
+		StompEncoder.write (spilled, Channels.newChannel (forwarded));
+		assertThat (forwarded.toString (), endsWith ("x".repeat (100) + "\0"));
+		spilled.spilledBody ().close ();
+	}
+
+	@Test
+	public void it_should_not_rewrite_the_unused_tail_when_reopening () throws Exception {
+		try ( StompJournal journal = StompJournal.open (dir, 4096, 1) ) {
+			journal.append (message (0));
+		}
+
+		Path segment = segments ().get (0);
+		try ( RandomAccessFile file = new RandomAccessFile (segment.toFile (), "rw") ) {
+			file.seek (3000);
+			file.write ('z');
+		}
+
+		try ( StompJournal journal = StompJournal.open (dir, 4096, 1) ) {
+			assertThat (journal.nextOffset (), is (1L));
+		}
+		try ( RandomAccessFile file = new RandomAccessFile (segment.toFile (), "r") ) {
+			file.seek (3000);
+			assertThat (file.read (), is ((int) 'z'));
+		}
+	}
+
+	@Test
+	public void it_should_refuse_frames_larger_than_a_segment () {
+		try ( StompJournal journal = StompJournal.open (dir, 32, 1) ) {
+			assertThrows (IllegalArgumentException.class, () -> journal.append (message (0)));
+		}
+	}
+
+	private StompFrame message (int i) {
+		return Stomp.message (Stomp.headers ("destination", "/queue/a", "message-id", i), ("body " + i).getBytes ());
+	}
+
+	private List<Path> segments () throws Exception {
+		try ( Stream<Path> files = Files.list (dir) ) {
+			return files.sorted ().collect (Collectors.toList ());
+		}
+	}
+
+	private long positionOf (Path segment, int index) throws Exception {
+		try ( RandomAccessFile file = new RandomAccessFile (segment.toFile (), "r") ) {
+			long position = 0;
+			for ( int i = 0; i < index; i++ ) {
+				file.seek (position);
+				position += 8 + file.readInt ();
+			}
+			return position;
+		}
+	}
+
+}
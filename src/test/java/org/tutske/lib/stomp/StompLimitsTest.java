@@ -0,0 +1,127 @@
+package org.tutske.lib.stomp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.tutske.lib.stomp.StompProtocolException.Reason;
+
+import java.nio.ByteBuffer;
+
+
+public class StompLimitsTest {
+
+	private final StompLimits limits = StompLimits.NONE
+		.maxFrameSize (1024)
+		.maxHeaders (4)
+		.maxHeaderLength (64)
+		.maxBodySize (256);
+
+	@Test
+	public void it_should_accept_frames_within_the_limits () {
+		StompFrame frame = parse ("SEND\ndestination:/queue/a\nid:1\n\nbody\0");
+		assertThat (frame.getBody (), is ("body"));
+	}
+
+	@Test
+	public void it_should_reject_frames_with_too_many_headers () {
+		assertReason (Reason.TOO_MANY_HEADERS, () -> parse ("SEND\na:1\nb:2\nc:3\nd:4\ne:5\n\n\0"));
+	}
+
+	@Test
+	public void it_should_reject_header_lines_that_are_too_long () {
+		assertReason (Reason.HEADER_TOO_LONG, () -> parse ("SEND\nkey:" + "x".repeat (100) + "\n\n\0"));
+	}
+
+	@Test
+	public void it_should_reject_bodies_that_are_too_large () {
+		assertReason (Reason.BODY_TOO_LARGE, () -> parse ("SEND\n\n" + "x".repeat (300) + "\0"));
+	}
+
+	@Test
+	public void it_should_reject_frames_that_are_too_large () {
+		StompLimits small = limits.maxFrameSize (32);
+		assertReason (Reason.FRAME_TOO_LARGE, () -> {
+			byte [] raw = ("SEND\n\n" + "x".repeat (100) + "\0").getBytes ();
+			StompFrame.fromRaw (raw, 0, raw.length, small);
+		});
+	}
+
+	@Test
+	public void it_should_use_protocol_exceptions_for_malformed_frames () {
+		assertReason (Reason.MALFORMED, () -> StompFrame.fromRaw ("SEND\nno-colon\n\n\0".getBytes ()));
+		assertReason (Reason.MALFORMED, () -> StompFrame.fromRaw ("SEND\ncontent-length:-4\n\nbody\0".getBytes ()));
+	}
+
+	@Test
+	public void it_should_limit_the_number_of_headers_by_default () {
+		StringBuilder raw = new StringBuilder ("SEND\n");
+		for ( int i = 0; i < 2000; i++ ) { raw.append ("h").append (i).append (":v\n"); }
+		raw.append ("\n\0");
+
+		assertReason (Reason.TOO_MANY_HEADERS, () -> StompFrame.fromRaw (raw.toString ().getBytes ()));
+	}
+
+	@Test
+	public void it_should_stop_decoding_headers_as_soon_as_they_exceed_the_limits () {
+		StompDecoder decoder = new StompDecoder ().limits (limits);
+		decoder.decode (chunk ("SEND\na:1\nb:2\nc:3\nd:4\n"));
+
+		assertReason (Reason.TOO_MANY_HEADERS, () -> decoder.decode (chunk ("e:5\n")));
+	}
+
+	@Test
+	public void it_should_reject_a_long_header_line_before_it_ends () {
+		StompDecoder decoder = new StompDecoder ().limits (limits);
+		assertReason (Reason.HEADER_TOO_LONG, () -> decoder.decode (chunk ("SEND\nkey:" + "x".repeat (100))));
+	}
+
+	@Test
+	public void it_should_reject_a_large_content_length_before_reading_the_body () {
+		StompDecoder decoder = new StompDecoder ().limits (limits);
+		assertReason (Reason.BODY_TOO_LARGE, () -> decoder.decode (chunk ("SEND\ncontent-length:100000\n\n")));
+	}
+
+	@Test
+	public void it_should_reject_an_unterminated_body_once_it_grows_too_large () {
+		StompDecoder decoder = new StompDecoder ().limits (limits);
+		decoder.decode (chunk ("SEND\n\n" + "x".repeat (200)));
+
+		assertReason (Reason.BODY_TOO_LARGE, () -> decoder.decode (chunk ("x".repeat (100))));
+	}
+
+	@Test
+	public void it_should_reject_frames_from_the_decoder_that_are_too_large () {
+		StompDecoder decoder = new StompDecoder ().limits (StompLimits.NONE.maxFrameSize (64));
+		assertReason (Reason.FRAME_TOO_LARGE, () -> decoder.decode (chunk ("SEND\n\n" + "x".repeat (100))));
+	}
+
+	@Test
+	public void it_should_apply_the_decoder_limits_to_reused_frames () {
+		StompDecoder decoder = new StompDecoder ().limits (StompLimits.NONE);
+		StringBuilder raw = new StringBuilder ("SEND\n");
+		for ( int i = 0; i < 2000; i++ ) { raw.append ("h").append (i).append (":v\n"); }
+		raw.append ("\nbody\0");
+
+		int [] headers = { 0 };
+		decoder.decode (chunk (raw.toString ()), new MutableStompFrame (), frame -> headers[0] = frame.headers ().size ());
+
+		assertThat (headers[0], is (2000));
+	}
+
+	private StompFrame parse (String raw) {
+		byte [] bytes = raw.getBytes ();
+		return StompFrame.fromRaw (bytes, 0, bytes.length, limits);
+	}
+
+	private ByteBuffer chunk (String data) {
+		return ByteBuffer.wrap (data.getBytes ());
+	}
+
+	private void assertReason (Reason reason, Runnable action) {
+		StompProtocolException e = assertThrows (StompProtocolException.class, action::run);
+		assertThat (e.reason (), is (reason));
+	}
+
+}
@@ -0,0 +1,105 @@
+package org.tutske.lib.stomp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.tutske.lib.stomp.StompProtocolException.Reason;
+
+import java.nio.ByteBuffer;
+
+
+public class StompMetricsTest {
+
+	private final StompMetricsRecorder recorder = new StompMetricsRecorder ();
+
+	@BeforeEach
+	public void install () {
+		StompFrame.metrics (recorder);
+	}
+
+	@AfterEach
+	public void uninstall () {
+		StompFrame.metrics (null);
+	}
+
+	@Test
+	public void it_should_record_parsed_frames_per_command () {
+		StompFrame.fromRaw ("SEND\ndestination:/queue/a\nid:1\n\nbody\0".getBytes ());
+		StompFrame.fromRaw ("SEND\n\n\0".getBytes ());
+
+		StompMetricsRecorder.CommandStats stats = recorder.stats ("SEND");
+		assertThat (stats.parsed (), is (2L));
+		assertThat (stats.bytesIn (), is (42L));
+		assertThat (stats.headers ().max (), is (2L));
+		assertThat (stats.bodySizes ().sum (), is (4L));
+		assertThat (stats.parseLatency ().count (), is (2L));
+		assertThat (recorder.stats ("MESSAGE").parsed (), is (0L));
+	}
+
+	@Test
+	public void it_should_record_encoded_frames () {
+		Stomp.message (Stomp.headers ("destination", "/topic/a"), "body".getBytes ());
+		StompFrame.builder ("MESSAGE").header ("message-id", 7).build ();
+
+		StompMetricsRecorder.CommandStats stats = recorder.stats ("MESSAGE");
+		assertThat (stats.encoded (), is (2L));
+		assertThat (stats.bodySizes ().max (), is (4L));
+		assertThat (stats.encodeLatency ().count (), is (2L));
+		assertThat (stats.parsed (), is (0L));
+	}
+
+	@Test
+	public void it_should_record_copies_of_raw_frames () {
+		StompFrame frame = Stomp.send (Stomp.headers ("destination", "/queue/a"), "body".getBytes ());
+
+		frame.raw ();
+		frame.rawBuffer ();
+
+		assertThat (recorder.stats ("SEND").bytesCopied (), is ((long) frame.rawBuffer ().remaining ()));
+	}
+
+	@Test
+	public void it_should_count_malformed_frames_by_reason () {
+		assertThrows (RuntimeException.class, () -> StompFrame.fromRaw ("SEND\nno-colon\n\n\0".getBytes ()));
+		assertThrows (RuntimeException.class, () -> StompFrame.fromRaw ("SEND\nno-colon\n\n\0".getBytes ()));
+		assertThrows (RuntimeException.class, () -> {
+			new StompDecoder ().decode (ByteBuffer.wrap ("SEND\ncontent-length:x\n\n\0".getBytes ()));
+		});
+
+		assertThat (recorder.malformed (), hasEntry (Reason.MALFORMED, 3L));
+	}
+
+	@Test
+	public void it_should_not_count_failures_by_their_message () {
+		StompLimits limits = StompLimits.NONE.maxHeaders (1);
+		for ( int i = 0; i < 100; i++ ) {
+			byte [] raw = ("SEND\na:" + i + "\nb:" + i + "\n\n\0").getBytes ();
+			assertThrows (StompProtocolException.class, () -> StompFrame.fromRaw (raw, 0, raw.length, limits));
+		}
+
+		assertThat (recorder.malformed ().keySet (), contains (Reason.TOO_MANY_HEADERS));
+		assertThat (recorder.malformed (), hasEntry (Reason.TOO_MANY_HEADERS, 100L));
+	}
+
+	@Test
+	public void it_should_record_frames_coming_through_the_decoder () {
+		new StompDecoder ().decode (ByteBuffer.wrap ("SEND\n\nfirst\0\nMESSAGE\n\nsecond\0".getBytes ()));
+
+		assertThat (recorder.stats ("SEND").parsed (), is (1L));
+		assertThat (recorder.stats ("MESSAGE").parsed (), is (1L));
+	}
+
+	@Test
+	public void it_should_stop_recording_once_uninstalled () {
+		StompFrame.metrics (null);
+		StompFrame.fromRaw ("SEND\n\n\0".getBytes ());
+
+		assertThat (StompFrame.metrics (), sameInstance (StompMetrics.NONE));
+		assertThat (recorder.stats ("SEND").parsed (), is (0L));
+	}
+
+}
@@ -0,0 +1,163 @@
+package org.tutske.lib.stomp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+public class StompRouterTest {
+
+	private final StompRouter<String> router = new StompRouter<> ();
+
+	@Test
+	public void it_should_route_exact_destinations () {
+		router.subscribe ("/queue/a", "first");
+		router.subscribe ("/queue/a", "second");
+		router.subscribe ("/queue/b", "other");
+
+		assertThat (router.subscribers ("/queue/a"), contains ("first", "second"));
+		assertThat (router.subscribers ("/queue/b"), contains ("other"));
+		assertThat (router.subscribers ("/queue/c"), empty ());
+		assertThat (router.subscribers ("/queue"), empty ());
+	}
+
+	@Test
+	public void it_should_match_a_single_segment_with_a_star () {
+		router.subscribe ("/topic/*/prices", "prices");
+
+		assertThat (router.subscribers ("/topic/eu/prices"), contains ("prices"));
+		assertThat (router.subscribers ("/topic/us/prices"), contains ("prices"));
+		assertThat (router.subscribers ("/topic/prices"), empty ());
+		assertThat (router.subscribers ("/topic/eu/nl/prices"), empty ());
+	}
+
+	@Test
+	public void it_should_match_any_number_of_segments_with_a_double_star () {
+		router.subscribe ("/topic/**", "all");
+
+		assertThat (router.subscribers ("/topic"), contains ("all"));
+		assertThat (router.subscribers ("/topic/a"), contains ("all"));
+		assertThat (router.subscribers ("/topic/a/b/c"), contains ("all"));
+		assertThat (router.subscribers ("/queue/a"), empty ());
+	}
+
+	@Test
+	public void it_should_match_double_stars_in_the_middle_of_a_pattern () {
+		router.subscribe ("/topic/**/prices", "prices");
+
+		assertThat (router.subscribers ("/topic/prices"), contains ("prices"));
+		assertThat (router.subscribers ("/topic/eu/prices"), contains ("prices"));
+		assertThat (router.subscribers ("/topic/eu/nl/prices"), contains ("prices"));
+		assertThat (router.subscribers ("/topic/eu/nl/volumes"), empty ());
+	}
+
+	@Test
+	public void it_should_combine_matches_from_different_patterns () {
+		router.subscribe ("/topic/a", "exact");
+		router.subscribe ("/topic/*", "star");
+		router.subscribe ("/**", "everything");
+
+		assertThat (router.subscribers ("/topic/a"), containsInAnyOrder ("exact", "star", "everything"));
+	}
+
+	@Test
+	public void it_should_route_to_a_subscriber_once_when_several_of_its_patterns_match () {
+		router.subscribe ("/topic/*", "sub");
+		router.subscribe ("/topic/**", "sub");
+		router.subscribe ("/**/a/**", "sub");
+		router.subscribe ("/topic/**", "other");
+
+		assertThat (router.subscribers ("/topic/a"), containsInAnyOrder ("sub", "other"));
+		assertThat (router.subscribers ("/topic/a/a"), containsInAnyOrder ("sub", "other"));
+	}
+
+	@Test
+	public void it_should_stop_routing_after_unsubscribing () {
+		router.subscribe ("/queue/a", "first");
+		router.subscribe ("/queue/a", "second");
+
+		assertThat (router.unsubscribe ("/queue/a", "first"), is (true));
+		assertThat (router.unsubscribe ("/queue/a", "first"), is (false));
+		assertThat (router.unsubscribe ("/queue/unknown", "first"), is (false));
+
+		assertThat (router.subscribers ("/queue/a"), contains ("second"));
+	}
+
+	@Test
+	public void it_should_prune_empty_branches () {
+		router.subscribe ("/queue/a/b", "first");
+		router.subscribe ("/topic/*/**", "second");
+
+		router.unsubscribe ("/queue/a/b", "first");
+		router.unsubscribe ("/topic/*/**", "second");
+
+		assertThat (router.isEmpty (), is (true));
+	}
+
+	@Test
+	public void it_should_handle_many_siblings () {
+		for ( int i = 0; i < 1000; i++ ) { router.subscribe ("/queue/" + i, "sub-" + i); }
+		for ( int i = 0; i < 1000; i += 2 ) { router.unsubscribe ("/queue/" + i, "sub-" + i); }
+
+		assertThat (router.subscribers ("/queue/999"), contains ("sub-999"));
+		assertThat (router.subscribers ("/queue/998"), empty ());
+	}
+
+	@Test
+	public void it_should_route_on_the_destination_of_a_frame () {
+		router.subscribe ("/topic/*", "star");
+
+		List<String> found = new ArrayList<> ();
+		router.route (Stomp.message (Stomp.headers ("destination", "/topic/a")), found::add);
+		router.route (StompFrame.fromRaw ("MESSAGE\ndestination:/topic/b\n\n\0".getBytes ()), found::add);
+		router.route (Stomp.message (), found::add);
+
+		assertThat (found, contains ("star", "star"));
+	}
+
+	@Test
+	public void it_should_unescape_frame_destinations_before_routing () {
+		router.subscribe ("/topic/a:b", "colon");
+
+		List<String> found = new ArrayList<> ();
+		router.route (StompFrame.fromRaw ("MESSAGE\ndestination:/topic/a\\cb\n\n\0".getBytes ()), found::add);
+
+		assertThat (found, contains ("colon"));
+	}
+
+	@Test
+	public void it_should_allow_lookups_while_subscriptions_change () throws Exception {
+		router.subscribe ("/queue/stable", "stable");
+		AtomicBoolean running = new AtomicBoolean (true);
+		AtomicReference<Throwable> failure = new AtomicReference<> ();
+
+		Thread reader = new Thread (() -> {
+			try {
+				while ( running.get () ) {
+					if ( ! router.subscribers ("/queue/stable").equals (List.of ("stable")) ) {
+						throw new AssertionError ("Lost the stable subscriber");
+					}
+				}
+			} catch (Throwable t) {
+				failure.set (t);
+			}
+		});
+		reader.start ();
+
+		for ( int i = 0; i < 2000; i++ ) {
+			router.subscribe ("/queue/" + i, "sub");
+			router.unsubscribe ("/queue/" + i, "sub");
+		}
+		running.set (false);
+		reader.join ();
+
+		assertThat (failure.get (), nullValue ());
+	}
+
+}
@@ -0,0 +1,87 @@
+package org.tutske.lib.stomp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+
+public class StompScannerTest {
+
+	@Test
+	public void it_should_find_bytes_at_every_offset_within_a_word () {
+		for ( int length = 1; length < 40; length++ ) {
+			for ( int position = 0; position < length; position++ ) {
+				byte [] data = new byte [length];
+				Arrays.fill (data, (byte) 'x');
+				data[position] = '\0';
+
+				assertThat (StompScanner.indexOf (data, 0, length, (byte) '\0'), is (position));
+			}
+		}
+	}
+
+	@Test
+	public void it_should_find_the_first_occurrence () {
+		byte [] data = "abcdefgh\0ijklmnop\0qrs\0".getBytes ();
+		assertThat (StompScanner.indexOf (data, 0, data.length, (byte) '\0'), is (8));
+		assertThat (StompScanner.indexOf (data, 9, data.length, (byte) '\0'), is (17));
+	}
+
+	@Test
+	public void it_should_not_find_bytes_outside_of_the_range () {
+		byte [] data = "abcdefghijklmnop\0".getBytes ();
+		assertThat (StompScanner.indexOf (data, 0, data.length - 1, (byte) '\0'), is (-1));
+		assertThat (StompScanner.indexOf (data, 0, 0, (byte) '\0'), is (-1));
+	}
+
+	@Test
+	public void it_should_not_be_fooled_by_bytes_just_above_the_target () {
+		byte [] data = { 1, 1, 1, 1, 1, 1, 1, 1, 0 };
+		assertThat (StompScanner.indexOf (data, 0, data.length, (byte) 0), is (8));
+
+		byte [] high = { (byte) 0x80, (byte) 0xFF, (byte) 0x81, 0x7F, 1, 2, 3, 4, (byte) 0x80 };
+		assertThat (StompScanner.indexOf (high, 0, high.length, (byte) 0x80), is (0));
+		assertThat (StompScanner.indexOf (high, 1, high.length, (byte) 0x80), is (8));
+	}
+
+	@Test
+	public void it_should_find_separator_and_newline_of_a_header_line () {
+		byte [] data = "destination:/queue/with:colon\nnext:line\n".getBytes ();
+		long line = StompScanner.scanLine (data, 0, data.length);
+
+		assertThat (StompScanner.separator (line), is (11));
+		assertThat (StompScanner.newline (line), is (29));
+	}
+
+	@Test
+	public void it_should_ignore_colons_on_the_next_line () {
+		byte [] data = "no-colon-in-this-line\nnext:line\n".getBytes ();
+		long line = StompScanner.scanLine (data, 0, data.length);
+
+		assertThat (StompScanner.separator (line), is (-1));
+		assertThat (StompScanner.newline (line), is (21));
+	}
+
+	@Test
+	public void it_should_ignore_colons_after_the_newline_within_the_same_word () {
+		byte [] data = "abc\n:x".getBytes ();
+		byte [] padded = "abcdefgh\nx:yzabcde\n".getBytes ();
+
+		assertThat (StompScanner.separator (StompScanner.scanLine (data, 0, data.length)), is (-1));
+		assertThat (StompScanner.separator (StompScanner.scanLine (padded, 0, padded.length)), is (-1));
+		assertThat (StompScanner.newline (StompScanner.scanLine (padded, 0, padded.length)), is (8));
+	}
+
+	@Test
+	public void it_should_report_unterminated_lines () {
+		byte [] data = "key:value without newline".getBytes ();
+		long line = StompScanner.scanLine (data, 0, data.length);
+
+		assertThat (StompScanner.separator (line), is (3));
+		assertThat (StompScanner.newline (line), is (-1));
+	}
+
+}
@@ -24,6 +24,26 @@ public class StompTest {
 		assertThat (nack ().command (), is ("NACK"));
 	}
 
+	@Test
+	public void it_should_create_stomp_messages_for_the_remaining_commands () {
+		assertThat (stomp ().commandType (), is (StompCommand.STOMP));
+		assertThat (connected ().commandType (), is (StompCommand.CONNECTED));
+		assertThat (subscribe ().commandType (), is (StompCommand.SUBSCRIBE));
+		assertThat (unsubscribe ().commandType (), is (StompCommand.UNSUBSCRIBE));
+		assertThat (begin ().commandType (), is (StompCommand.BEGIN));
+		assertThat (commit ().commandType (), is (StompCommand.COMMIT));
+		assertThat (abort ().commandType (), is (StompCommand.ABORT));
+	}
+
+	@Test
+	public void it_should_have_shortcuts_for_the_remaining_commands_with_headers () {
+		assertThat (subscribe ("id", "1").header ("id"), is ("1"));
+		assertThat (unsubscribe ("id", "1").header ("id"), is ("1"));
+		assertThat (begin ("transaction", "tx").header ("transaction"), is ("tx"));
+		assertThat (commit ("transaction", "tx").header ("transaction"), is ("tx"));
+		assertThat (abort ("transaction", "tx").header ("transaction"), is ("tx"));
+	}
+
 	@Test
 	public void it_should_create_stomp_messages_with_header_maps_for_well_known_commands () {
 		Map<String, Object> headers = headers ("header", "value");
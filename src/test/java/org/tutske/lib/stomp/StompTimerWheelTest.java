@@ -0,0 +1,109 @@
+package org.tutske.lib.stomp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+
+public class StompTimerWheelTest {
+
+	private long now = 1_000_000L;
+	private final StompTimerWheel wheel = new StompTimerWheel (10, TimeUnit.MILLISECONDS, 8, () -> now);
+	private final List<String> fired = new ArrayList<> ();
+
+	@Test
+	public void it_should_not_fire_timeouts_early () {
+		wheel.schedule (() -> fired.add ("a"), 25, TimeUnit.MILLISECONDS);
+
+		advance (20);
+		assertThat (fired, empty ());
+
+		advance (10);
+		assertThat (fired, contains ("a"));
+	}
+
+	@Test
+	public void it_should_fire_timeouts_in_deadline_order () {
+		wheel.schedule (() -> fired.add ("late"), 50, TimeUnit.MILLISECONDS);
+		wheel.schedule (() -> fired.add ("early"), 10, TimeUnit.MILLISECONDS);
+
+		advance (100);
+
+		assertThat (fired, contains ("early", "late"));
+	}
+
+	@Test
+	public void it_should_handle_timeouts_longer_than_one_revolution () {
+		wheel.schedule (() -> fired.add ("a"), 250, TimeUnit.MILLISECONDS);
+
+		for ( int i = 0; i < 24; i++ ) { advance (10); }
+		assertThat (fired, empty ());
+
+		advance (20);
+		assertThat (fired, contains ("a"));
+	}
+
+	@Test
+	public void it_should_not_fire_cancelled_timeouts () {
+		StompTimerWheel.Timeout timeout = wheel.schedule (() -> fired.add ("a"), 10, TimeUnit.MILLISECONDS);
+		timeout.cancel ();
+
+		advance (50);
+
+		assertThat (fired, empty ());
+		assertThat (timeout.isCancelled (), is (true));
+	}
+
+	@Test
+	public void it_should_fire_timeouts_scheduled_from_inside_a_task () {
+		wheel.schedule (() -> {
+			fired.add ("first");
+			wheel.schedule (() -> fired.add ("second"), 10, TimeUnit.MILLISECONDS);
+		}, 10, TimeUnit.MILLISECONDS);
+
+		advance (10);
+		assertThat (fired, contains ("first"));
+
+		advance (20);
+		assertThat (fired, contains ("first", "second"));
+	}
+
+	@Test
+	public void it_should_fire_overdue_timeouts_on_the_next_tick () {
+		advance (100);
+		wheel.schedule (() -> fired.add ("a"), 0, TimeUnit.MILLISECONDS);
+
+		advance (10);
+
+		assertThat (fired, contains ("a"));
+	}
+
+	@Test
+	public void it_should_drive_itself_when_started () throws Exception {
+		CountDownLatch latch = new CountDownLatch (1);
+		try ( StompTimerWheel running = new StompTimerWheel (1, TimeUnit.MILLISECONDS, 64).start () ) {
+			running.schedule (latch::countDown, 20, TimeUnit.MILLISECONDS);
+			assertThat (latch.await (5, TimeUnit.SECONDS), is (true));
+		}
+	}
+
+	@Test
+	public void it_should_require_a_power_of_two_wheel_size () {
+		assertThrows (IllegalArgumentException.class, () -> {
+			new StompTimerWheel (10, TimeUnit.MILLISECONDS, 100);
+		});
+	}
+
+	private void advance (long millis) {
+		now += TimeUnit.MILLISECONDS.toNanos (millis);
+		wheel.advance ();
+	}
+
+}
@@ -0,0 +1,176 @@
+package org.tutske.lib.stomp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class StompTransactionsTest {
+
+	private final StompTransactions transactions = new StompTransactions (2, 8 * 1024 * 1024);
+	private final List<StompFrame> released = new ArrayList<> ();
+
+	@Test
+	public void it_should_pass_through_frames_outside_of_a_transaction () {
+		assertThat (transactions.handle (Stomp.send (Stomp.headers ("destination", "/queue/a")), released::add), is (false));
+		assertThat (released, empty ());
+	}
+
+	@Test
+	public void it_should_hold_back_frames_until_the_transaction_is_committed () {
+		transactions.handle (Stomp.begin ("transaction", "tx"), released::add);
+		for ( int i = 0; i < 5; i++ ) {
+			assertThat (transactions.handle (send ("tx", "message " + i), released::add), is (true));
+		}
+
+		assertThat (released, empty ());
+		assertThat (transactions.frames ("tx"), is (5));
+
+		transactions.handle (Stomp.commit ("transaction", "tx"), released::add);
+
+		assertThat (released, hasSize (5));
+		for ( int i = 0; i < 5; i++ ) {
+			assertThat (released.get (i).command (), is ("SEND"));
+			assertThat (released.get (i).header ("destination"), is ("/queue/a"));
+			assertThat (released.get (i).getBody (), is ("message " + i));
+		}
+		assertThat (transactions.open (), is (0));
+	}
+
+	@Test
+	public void it_should_drop_staged_frames_when_the_transaction_is_aborted () {
+		transactions.begin ("tx");
+		transactions.stage ("tx", send ("tx", "first"));
+		transactions.stage ("tx", send ("tx", "second"));
+
+		assertThat (transactions.abort ("tx"), is (2));
+		assertThat (transactions.isOpen ("tx"), is (false));
+		assertThrows (StompProtocolException.class, () -> transactions.commit ("tx", released::add));
+		assertThat (released, empty ());
+	}
+
+	@Test
+	public void it_should_keep_transactions_apart () {
+		transactions.begin ("one");
+		transactions.begin ("two");
+		transactions.stage ("one", send ("one", "a"));
+		transactions.stage ("two", send ("two", "b"));
+		transactions.stage ("one", send ("one", "c"));
+
+		transactions.abort ("two");
+		transactions.commit ("one", released::add);
+
+		assertThat (released, hasSize (2));
+		assertThat (released.get (0).getBody (), is ("a"));
+		assertThat (released.get (1).getBody (), is ("c"));
+	}
+
+	@Test
+	public void it_should_move_large_transactions_off_heap () {
+		String body = "x".repeat (10_000);
+		transactions.begin ("tx");
+		for ( int i = 0; i < 200; i++ ) { transactions.stage ("tx", send ("tx", i + ":" + body)); }
+
+		assertThat (transactions.bytes ("tx"), greaterThan (2_000_000L));
+		transactions.commit ("tx", released::add);
+
+		assertThat (released, hasSize (200));
+		for ( int i = 0; i < 200; i++ ) { assertThat (released.get (i).getBody (), is (i + ":" + body)); }
+	}
+
+	@Test
+	public void it_should_stage_frames_with_spilled_bodies (@TempDir Path dir) throws Exception {
+		String body = "0123456789".repeat (200);
+		StompDecoder decoder = new StompDecoder ().spillBodiesAbove (100, dir);
+		StompFrame frame = decoder.decode (ByteBuffer.wrap (
+			("SEND\ntransaction:tx\ncontent-length:2000\n\n" + body + "\0").getBytes ()
+		)).get (0);
+
+		transactions.begin ("tx");
+		transactions.handle (frame, released::add);
+		transactions.commit ("tx", released::add);
+
+		assertThat (frame.spilledBody ().channel ().isOpen (), is (true));
+		frame.spilledBody ().close ();
+
+		assertThat (released, hasSize (1));
+		assertThat (released.get (0).isSpilled (), is (false));
+		assertThat (released.get (0).getBody (), is (body));
+	}
+
+	@Test
+	public void it_should_limit_the_number_of_open_transactions () {
+		transactions.begin ("one");
+		transactions.begin ("two");
+
+		StompProtocolException e = assertThrows (StompProtocolException.class, () -> transactions.begin ("three"));
+		assertThat (e.reason (), is (StompProtocolException.Reason.TOO_MANY_TRANSACTIONS));
+	}
+
+	@Test
+	public void it_should_limit_the_size_of_a_transaction () {
+		StompTransactions transactions = new StompTransactions (2, 100);
+		transactions.begin ("tx");
+		transactions.stage ("tx", send ("tx", "small"));
+
+		StompProtocolException e = assertThrows (StompProtocolException.class, () -> {
+			transactions.stage ("tx", send ("tx", "x".repeat (100)));
+		});
+		assertThat (e.reason (), is (StompProtocolException.Reason.TRANSACTION_TOO_LARGE));
+	}
+
+	@Test
+	public void it_should_complain_about_unknown_or_duplicate_transactions () {
+		transactions.begin ("tx");
+
+		StompProtocolException duplicate = assertThrows (StompProtocolException.class, () -> transactions.begin ("tx"));
+		StompProtocolException unknown = assertThrows (StompProtocolException.class, () -> {
+			transactions.handle (send ("other", "body"), released::add);
+		});
+
+		assertThat (duplicate.reason (), is (StompProtocolException.Reason.DUPLICATE_TRANSACTION));
+		assertThat (unknown.reason (), is (StompProtocolException.Reason.UNKNOWN_TRANSACTION));
+	}
+
+	@Test
+	public void it_should_complain_about_transaction_commands_without_a_transaction () {
+		assertThrows (StompProtocolException.class, () -> transactions.handle (Stomp.begin (), released::add));
+	}
+
+	@Test
+	public void it_should_not_count_failures_per_transaction_id () {
+		StompMetricsRecorder recorder = new StompMetricsRecorder ();
+		StompFrame.metrics (recorder);
+		try {
+			for ( int i = 0; i < 100; i++ ) {
+				String id = "tx-" + i;
+				assertThrows (StompProtocolException.class, () -> transactions.commit (id, released::add));
+			}
+			assertThat (recorder.malformed ().size (), is (1));
+		} finally {
+			StompFrame.metrics (null);
+		}
+	}
+
+	@Test
+	public void it_should_abort_all_open_transactions () {
+		transactions.begin ("one");
+		transactions.begin ("two");
+		transactions.abortAll ();
+
+		assertThat (transactions.open (), is (0));
+	}
+
+	private StompFrame send (String transaction, String body) {
+		return Stomp.send (Stomp.headers ("destination", "/queue/a", "transaction", transaction), body.getBytes ());
+	}
+
+}
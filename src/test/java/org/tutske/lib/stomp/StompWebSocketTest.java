@@ -0,0 +1,282 @@
+package org.tutske.lib.stomp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+public class StompWebSocketTest {
+
+	private static final String UPGRADE = "GET /stomp HTTP/1.1\r\n"
+		+ "Host: localhost\r\n"
+		+ "Upgrade: websocket\r\n"
+		+ "Connection: keep-alive, Upgrade\r\n"
+		+ "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+		+ "Sec-WebSocket-Protocol: v10.stomp, v12.stomp\r\n"
+		+ "Sec-WebSocket-Version: 13\r\n"
+		+ "\r\n";
+
+	private final StompWebSocket websocket = new StompWebSocket (new StompDecoder (16));
+	private final List<StompFrame> frames = new ArrayList<> ();
+	private final List<ByteBuffer> replies = new ArrayList<> ();
+
+	@Test
+	public void it_should_compute_the_accept_key_from_the_rfc () {
+		assertThat (StompWebSocket.accept ("dGhlIHNhbXBsZSBub25jZQ=="), is ("s3pPLMBiTxaQ9kYGzzhZRbK+xOo="));
+	}
+
+	@Test
+	public void it_should_answer_the_upgrade_request () {
+		decode (UPGRADE.getBytes ());
+
+		String response = string (replies.get (0));
+		assertThat (response, startsWith ("HTTP/1.1 101 Switching Protocols\r\n"));
+		assertThat (response, containsString ("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=\r\n"));
+		assertThat (response, containsString ("Sec-WebSocket-Protocol: v12.stomp\r\n"));
+		assertThat (websocket.isOpen (), is (true));
+		assertThat (websocket.protocol (), is ("v12.stomp"));
+	}
+
+	@Test
+	public void it_should_reject_requests_that_are_not_an_upgrade () {
+		decode ("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes ());
+
+		assertThat (string (replies.get (0)), startsWith ("HTTP/1.1 400 Bad Request"));
+		assertThat (websocket.isClosed (), is (true));
+	}
+
+	@Test
+	public void it_should_feed_unmasked_payloads_to_the_decoder () {
+		decode (UPGRADE.getBytes ());
+		decode (masked (StompWebSocket.TEXT, true, "SEND\ndestination:/queue/a\n\nhello\0"));
+
+		assertThat (frames, hasSize (1));
+		assertThat (frames.get (0).header ("destination"), is ("/queue/a"));
+		assertThat (frames.get (0).getBody (), is ("hello"));
+	}
+
+	@Test
+	public void it_should_join_fragmented_messages () {
+		decode (UPGRADE.getBytes ());
+		decode (masked (StompWebSocket.TEXT, false, "SEND\ndestination:/qu"));
+		decode (masked (StompWebSocket.PING, true, "are you there"));
+		decode (masked (StompWebSocket.CONTINUATION, false, "eue/a\n\nhel"));
+		decode (masked (StompWebSocket.CONTINUATION, true, "lo\0"));
+
+		assertThat (frames, hasSize (1));
+		assertThat (frames.get (0).header ("destination"), is ("/queue/a"));
+		assertThat (frames.get (0).getBody (), is ("hello"));
+		assertThat (string (replies.get (1)), is ("\u008A\rare you there"));
+	}
+
+	@Test
+	public void it_should_decode_frames_fed_one_byte_at_a_time () {
+		String body = "0123456789".repeat (30);
+		ByteArrayOutputStream out = new ByteArrayOutputStream ();
+		out.writeBytes (UPGRADE.getBytes ());
+		out.writeBytes (masked (StompWebSocket.BINARY, true, "SEND\n\n" + body + "\0"));
+		out.writeBytes (masked (StompWebSocket.TEXT, true, "SEND\n\nsecond\0"));
+
+		for ( byte b : out.toByteArray () ) { decode (new byte [] { b }); }
+
+		assertThat (frames, hasSize (2));
+		assertThat (frames.get (0).getBody (), is (body));
+		assertThat (frames.get (1).getBody (), is ("second"));
+	}
+
+	@Test
+	public void it_should_echo_a_close_frame () {
+		decode (UPGRADE.getBytes ());
+		decode (masked (StompWebSocket.CLOSE, true, "\u0003\u00E8"));
+
+		assertThat (string (replies.get (1)), is ("\u0088\u0002\u0003\u00E8"));
+		assertThat (websocket.isClosed (), is (true));
+	}
+
+	@Test
+	public void it_should_refuse_unmasked_client_frames () {
+		decode (UPGRADE.getBytes ());
+		assertThrows (StompProtocolException.class, () -> decode (new byte [] { (byte) 0x81, 0x01, 'x' }));
+	}
+
+	@Test
+	public void it_should_refuse_continuations_without_a_message () {
+		decode (UPGRADE.getBytes ());
+		assertThrows (StompProtocolException.class, () -> {
+			decode (masked (StompWebSocket.CONTINUATION, true, "SEND\n\n\0"));
+		});
+	}
+
+	@Test
+	public void it_should_prepend_a_header_without_copying_the_payload () {
+		ByteBuffer payload = ByteBuffer.wrap ("x".repeat (300).getBytes ());
+		ByteBuffer [] wrapped = websocket.wrap (payload);
+
+		assertThat (wrapped, arrayWithSize (2));
+		assertThat (wrapped[1], sameInstance (payload));
+		assertThat (wrapped[0].remaining (), is (4));
+		assertThat (wrapped[0].get (0), is ((byte) 0x81));
+		assertThat (wrapped[0].get (1), is ((byte) 126));
+		assertThat (wrapped[0].getShort (2), is ((short) 300));
+	}
+
+	@Test
+	public void it_should_send_only_text_bodies_as_text_frames () {
+		StompFrame text = Stomp.message (Stomp.headers ("content-type", "text/plain;charset=utf-8"), "hi".getBytes ());
+		StompFrame json = Stomp.message (Stomp.headers ("content-type", "application/json"), "{}".getBytes ());
+		StompFrame blob = Stomp.message (Stomp.headers ("content-type", "application/octet-stream"), new byte [] { -1 });
+		StompFrame untyped = Stomp.message (Stomp.headers ("destination", "/queue/a"), new byte [] { -1 });
+
+		assertThat (websocket.opcode (text), is (StompWebSocket.TEXT));
+		assertThat (websocket.opcode (json), is (StompWebSocket.TEXT));
+		assertThat (websocket.opcode (Stomp.receipt (Stomp.headers ("receipt-id", 1))), is (StompWebSocket.TEXT));
+		assertThat (websocket.opcode (blob), is (StompWebSocket.BINARY));
+		assertThat (websocket.opcode (untyped), is (StompWebSocket.BINARY));
+	}
+
+	@Test
+	public void it_should_send_everything_as_binary_when_asked () {
+		websocket.binary (true);
+		StompFrame text = Stomp.message (Stomp.headers ("content-type", "text/plain"), "hi".getBytes ());
+
+		assertThat (websocket.opcode (text), is (StompWebSocket.BINARY));
+		assertThat (websocket.wrap (ByteBuffer.allocate (1))[0].get (0), is ((byte) 0x82));
+	}
+
+	@Test
+	public void it_should_use_a_long_length_for_large_payloads () {
+		ByteBuffer header = StompWebSocket.header (StompWebSocket.BINARY, 70_000);
+
+		assertThat (header.remaining (), is (10));
+		assertThat (header.get (1), is ((byte) 127));
+		assertThat (header.getLong (2), is (70_000L));
+	}
+
+	@Test
+	public void it_should_unmask_at_any_offset () {
+		byte [] data = new byte [37];
+		for ( int i = 0; i < data.length; i++ ) { data[i] = (byte) i; }
+		int mask = 0x11223344;
+
+		ByteBuffer buffer = ByteBuffer.wrap (data.clone ());
+		StompWebSocket.unmask (buffer, 3, 20, mask, 0);
+		StompWebSocket.unmask (buffer, 20, 37, mask, 17 & 3);
+
+		byte [] key = { 0x11, 0x22, 0x33, 0x44 };
+		for ( int i = 3; i < data.length; i++ ) {
+			assertThat (buffer.get (i), is ((byte) (data[i] ^ key[(i - 3) & 3])));
+		}
+	}
+
+	@Test
+	public void it_should_speak_stomp_over_websockets_with_a_loopback_client () throws Exception {
+		StompEngine server = new StompEngine ((connection, frame) -> {
+			if ( "SEND".equals (frame.command ()) ) {
+				connection.send (Stomp.message (
+					Stomp.headers ("destination", frame.header ("destination"), "message-id", 1),
+					frame.getByteBody ()
+				));
+			}
+		}).websocket (true);
+
+		try ( server ) {
+			InetSocketAddress address = server.listen (new InetSocketAddress (InetAddress.getLoopbackAddress (), 0))
+				.get (5, TimeUnit.SECONDS);
+
+			try ( Socket socket = new Socket (address.getAddress (), address.getPort ()) ) {
+				socket.setSoTimeout (10_000);
+				OutputStream out = socket.getOutputStream ();
+				DataInputStream in = new DataInputStream (socket.getInputStream ());
+
+				out.write (UPGRADE.getBytes ());
+				assertThat (readResponse (in), startsWith ("HTTP/1.1 101"));
+
+				String body = "y".repeat (100_000);
+				byte [] send = ("SEND\ndestination:/queue/a\n\n" + body + "\0").getBytes ();
+				out.write (masked (StompWebSocket.TEXT, false, new String (send, 0, 1000)));
+				out.write (masked (StompWebSocket.CONTINUATION, true, new String (send, 1000, send.length - 1000)));
+
+				int first = in.readUnsignedByte ();
+				assertThat (first & 0x0F, is (StompWebSocket.BINARY));
+				StompFrame message = StompFrame.fromRaw (readMessage (in, first));
+				assertThat (message.command (), is ("MESSAGE"));
+				assertThat (message.header ("destination"), is ("/queue/a"));
+				assertThat (message.getBody (), is (body));
+
+				out.write (masked (StompWebSocket.CLOSE, true, "\u0003\u00E8"));
+				assertThat (in.readUnsignedByte (), is (0x88));
+			}
+		}
+	}
+
+	private void decode (byte [] data) {
+		websocket.decode (ByteBuffer.wrap (data), frames::add, replies::add);
+	}
+
+	private static byte [] masked (int opcode, boolean fin, String payload) {
+		byte [] data = payload.getBytes (StandardCharsets.ISO_8859_1);
+		byte [] key = { 0x37, (byte) 0xFA, 0x21, 0x3D };
+		ByteArrayOutputStream out = new ByteArrayOutputStream ();
+
+		out.write ((fin ? 0x80 : 0) | opcode);
+		if ( data.length < 126 ) {
+			out.write (0x80 | data.length);
+		} else if ( data.length <= 0xFFFF ) {
+			out.write (0x80 | 126);
+			out.write (data.length >>> 8);
+			out.write (data.length);
+		} else {
+			out.write (0x80 | 127);
+			for ( int shift = 56; shift >= 0; shift -= 8 ) { out.write ((int) ((long) data.length >>> shift)); }
+		}
+		out.writeBytes (key);
+		for ( int i = 0; i < data.length; i++ ) { out.write (data[i] ^ key[i & 3]); }
+
+		return out.toByteArray ();
+	}
+
+	private static String readResponse (InputStream in) throws IOException {
+		StringBuilder response = new StringBuilder ();
+		while ( ! response.toString ().endsWith ("\r\n\r\n") ) { response.append ((char) in.read ()); }
+		return response.toString ();
+	}
+
+	private static byte [] readMessage (DataInputStream in, int first) throws IOException {
+		ByteArrayOutputStream message = new ByteArrayOutputStream ();
+		boolean fin = false;
+		while ( ! fin ) {
+			if ( first < 0 ) { first = in.readUnsignedByte (); }
+			int size = in.readUnsignedByte ();
+			assertThat (size & 0x80, is (0));
+
+			long length = size == 126 ? in.readUnsignedShort () : size == 127 ? in.readLong () : size;
+			byte [] payload = new byte [(int) length];
+			in.readFully (payload);
+			message.writeBytes (payload);
+			fin = (first & 0x80) != 0;
+			first = -1;
+		}
+		return message.toByteArray ();
+	}
+
+	private static String string (ByteBuffer buffer) {
+		return StandardCharsets.ISO_8859_1.decode (buffer.duplicate ()).toString ();
+	}
+
+}